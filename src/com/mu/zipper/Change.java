@@ -0,0 +1,81 @@
+package com.mu.zipper;
+
+/**
+ * A single edit operation of a <tt>Zipper.diff()</tt>.
+ * Index paths are relative to the compared locations,
+ * <tt>from()</tt> is the path in the old tree, <tt>to()</tt>
+ * the path in the new tree:
+ * <pre>
+ *   INSERT  - node inserted at to()
+ *   DELETE  - node at from() removed
+ *   REPLACE - node at from() replaced by the node at to()
+ *   MOVE    - node at from() moved to to()
+ * </pre>
+ * Paths of sibling changes refer to the children before
+ * (<tt>from()</tt>) and after (<tt>to()</tt>) all changes.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public final class Change<T extends IZipNode> {
+
+	/**
+	 * Change operations.
+	 */
+	public enum Type {
+		INSERT, DELETE, REPLACE, MOVE;
+	}
+
+	private final Type type;
+
+	private final IndexPath from;
+
+	private final IndexPath to;
+
+	private final T node;
+
+	protected Change(final Type type, final IndexPath from, final IndexPath to, final T node) {
+		super();
+		this.type = type;
+		this.from = from;
+		this.to = to;
+		this.node = node;
+	}
+
+	/**
+	 * @return the change operation
+	 */
+	public Type type() {
+		return type;
+	}
+
+	/**
+	 * @return path in the old tree, null for <tt>INSERT</tt>
+	 */
+	public IndexPath from() {
+		return from;
+	}
+
+	/**
+	 * @return path in the new tree, null for <tt>DELETE</tt>
+	 */
+	public IndexPath to() {
+		return to;
+	}
+
+	/**
+	 * @return the source node, the removed node for
+	 *         <tt>DELETE</tt>, the new node otherwise
+	 */
+	public T node() {
+		return node;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + ((from != null)? from : "") + ((from != null && to != null)? " -> " : "")
+				+ ((to != null)? to : "") + " " + node;
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.mu.zipper;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Internal fork/join task over a range of children, used by
+ * the parallel fold, unzip, unfold and transforms. The range
+ * is split in halves and forked while the number of surplus
+ * tasks queued by the current worker does not exceed the
+ * threshold, otherwise the children are processed in this task.
+ *
+ * @author Adam Smyczek
+ */
+abstract class ChildRangeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	// Max nesting of inlined tasks before subtrees are processed
+	// sequentially, protects the thread stack
+	protected static final int MAX_INLINE_DEPTH = 256;
+
+	protected final int from;
+
+	protected final int to;
+
+	protected final int threshold;
+
+	// Nesting of inlined tasks on the current thread
+	protected final int depth;
+
+	protected ChildRangeTask(final int from, final int to, final int threshold, final int depth) {
+		super();
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+		this.depth = depth;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from > 1 && getSurplusQueuedTaskCount() <= threshold) {
+			int mid = (from + to) >>> 1;
+			ChildRangeTask first = range(from, mid);
+			first.fork();
+			range(mid, to).compute();
+			first.join();
+		} else {
+			for (int i = from; i < to; i++) {
+				child(i);
+			}
+		}
+	}
+
+	/**
+	 * @return a task for the sub range <tt>from</tt> to <tt>to</tt>
+	 */
+	protected abstract ChildRangeTask range(int from, int to);
+
+	/**
+	 * Processes the child at <tt>index</tt>.
+	 */
+	protected abstract void child(int index);
+
+}
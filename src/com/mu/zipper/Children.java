@@ -0,0 +1,77 @@
+package com.mu.zipper;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Internal helper for index based access to the children of
+ * ZipNodes and source nodes without creating ZipNode wrappers.
+ * A children container is the children sequence of a ZipNode
+ * or an indexed source node, a random access children list of 
+ * a source node, or an array copy of any other children collection.
+ *
+ * @author Adam Smyczek
+ */
+final class Children {
+
+	private Children() {
+		super();
+	}
+
+	/**
+	 * @param node ZipNode or source node
+	 * @return children container, null for leaf nodes
+	 */
+	protected static Object of(final IZipNode node) {
+		if (node instanceof ZipNode<?>) {
+			return ((ZipNode<?>)node).children();
+		}
+		if (node instanceof IIndexedZipNode) {
+			int count = ((IIndexedZipNode)node).childCount();
+			return (count < 0)? null : IndexedSeq.of((IIndexedZipNode)node, count);
+		}
+		Collection<? extends IZipNode> c = node.getChildren();
+		if (c == null || c instanceof List<?> && c instanceof RandomAccess) {
+			return c;
+		}
+		return c.toArray();
+	}
+
+	/**
+	 * @param children container, may be null
+	 * @return number of children
+	 */
+	protected static int size(final Object children) {
+		if (children instanceof Seq) {
+			return ((Seq)children).size();
+		} else if (children instanceof List<?>) {
+			return ((List<?>)children).size();
+		}
+		return (children == null)? 0 : ((Object[])children).length;
+	}
+
+	/**
+	 * @param children container
+	 * @param index of the child
+	 * @return the child at <tt>index</tt>
+	 */
+	protected static IZipNode get(final Object children, final int index) {
+		if (children instanceof Seq) {
+			return ((Seq)children).get(index);
+		} else if (children instanceof List<?>) {
+			return (IZipNode)((List<?>)children).get(index);
+		}
+		return (IZipNode)((Object[])children)[index];
+	}
+
+	/**
+	 * @param node ZipNode or source node
+	 * @return the source node
+	 */
+	@SuppressWarnings("unchecked")
+	protected static <T extends IZipNode> T source(final IZipNode node) {
+		return (node instanceof ZipNode<?>)? ((ZipNode<T>)node)._source() : (T)node;
+	}
+
+}
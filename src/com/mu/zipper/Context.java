@@ -3,20 +3,26 @@ package com.mu.zipper;
 /**
  * Internal location context holds references
  * to the parent context and all sibling nodes 
- * of the current location node.
+ * of the current location node. Siblings are
+ * stored in persistent sequences, moving to a
+ * sibling or inserting a sibling next to the
+ * current location shares all other nodes.
+ * The context tracks if the siblings were edited,
+ * <tt>up()</tt> uses this to return the original
+ * parent node if nothing below it changed.
  * 
  * @author Adam Smyczek
  */
 final class Context {
 
 	// Top context, marks the context of the root node
-	protected static final Context TOP = new Context(null, null, null, null);
+	protected static final Context TOP = new Context(null, null, null, null, null, false, false);
 	
-	// Left sibling nodes
-	private final IZipNode[] left;
+	// Left sibling nodes, the nearest sibling is the last node
+	private final Seq left;
 	
-	// Right sibling nodes
-	private final IZipNode[] right;
+	// Right sibling nodes, the nearest sibling is the first node
+	private final Seq right;
 	
 	// Parent context
 	private final Context parentContext;
@@ -24,16 +30,67 @@ final class Context {
 	// Parent node
 	private final ZipNode<?> parentNode;
 	
+	// Original node at the focus position, as stored in the sibling sets
+	private final IZipNode origin;
+	
+	// True if the siblings differ from the children of the parent node
+	private final boolean changed;
+	
+	// True if the source nodes of the siblings differ from
+	// the source nodes of the children of the parent node
+	private final boolean structural;
+	
+	// Depth of the focus position, 0 for the top context
+	private final int depth;
+	
+	// True if the focus position and all its ancestors are last siblings
+	private final boolean lastPath;
+	
 	protected Context(
 			final ZipNode<?> parentNode, 
 			final Context parentContext, 
-			final IZipNode[] left, 
-			final IZipNode[] right) {
+			final Seq left, 
+			final Seq right,
+			final IZipNode origin,
+			final boolean changed,
+			final boolean structural) {
 		super();
 		this.parentNode = parentNode;
 		this.parentContext = parentContext;
-		this.left = (left == null)? new IZipNode[0] : left;
-		this.right = (right == null)? new IZipNode[0] : right;
+		this.left = (left == null)? Seq.EMPTY : left;
+		this.right = (right == null)? Seq.EMPTY : right;
+		this.origin = origin;
+		this.changed = changed || structural;
+		this.structural = structural;
+		this.depth = (parentContext == null)? 0 : parentContext.depth + 1;
+		this.lastPath = (parentContext == null) || (this.right.isEmpty() && parentContext.lastPath);
+	}
+	
+	/**
+	 * Creates the context for a sibling move.
+	 * 
+	 * @param left new left siblings
+	 * @param right new right siblings
+	 * @param origin node at the new focus position
+	 * @param changed true if a sibling was changed
+	 * @param structural true if a sibling was replaced by a different source node
+	 * @return new context with same parent
+	 */
+	protected Context move(final Seq left, final Seq right, final IZipNode origin, 
+			final boolean changed, final boolean structural) {
+		return new Context(parentNode, parentContext, left, right, origin, 
+				this.changed || changed, this.structural || structural);
+	}
+	
+	/**
+	 * Creates the context for edited siblings.
+	 * 
+	 * @param left new left siblings
+	 * @param right new right siblings
+	 * @return new context with same parent and focus position
+	 */
+	protected Context edit(final Seq left, final Seq right) {
+		return new Context(parentNode, parentContext, left, right, origin, true, true);
 	}
 	
 	/**
@@ -47,30 +104,104 @@ final class Context {
 	 * @return true if the current location is the first sibling
 	 */
 	protected boolean isFirst() {
-		return left.length == 0;
+		return left.isEmpty();
 	}
 	
 	/**
 	 * @return true if the current location is the last sibling
 	 */
 	protected boolean isLast() {
-		return right.length == 0;
+		return right.isEmpty();
+	}
+	
+	/**
+	 * @return depth of the focus position, 0 for the root node
+	 */
+	protected int depth() {
+		return depth;
+	}
+	
+	/**
+	 * @return true if the focus position and all its ancestor
+	 *         positions are the last siblings, the right most
+	 *         path of the tree
+	 */
+	protected boolean isLastPath() {
+		return lastPath;
 	}
 	
 	/**
 	 * @return left sibling nodes
 	 */
-	protected IZipNode[] leftNodes() {
+	protected Seq leftNodes() {
 		return left;
 	}
 	
 	/**
 	 * @return right sibling nodes
 	 */
-	protected IZipNode[] rightNodes() {
+	protected Seq rightNodes() {
 		return right;
 	}
 
+	/**
+	 * @return the original node at the focus position
+	 */
+	protected IZipNode origin() {
+		return origin;
+	}
+	
+	/**
+	 * @return true if the siblings were edited
+	 */
+	protected boolean isChanged() {
+		return changed;
+	}
+	
+	/**
+	 * @return true if siblings were inserted, removed or replaced
+	 *         by different source nodes
+	 */
+	protected boolean isStructural() {
+		return structural;
+	}
+	
+	/**
+	 * @param node focus node of a location with this context
+	 * @return true if <tt>node</tt> wraps the source node at the
+	 *         original focus position
+	 */
+	protected boolean isOriginSource(final ZipNode<?> node) {
+		return node._source() == Children.source(origin);
+	}
+	
+	/**
+	 * @param node focus node of a location with this context
+	 * @return true if <tt>node</tt> is the unchanged original focus node
+	 */
+	protected boolean isOrigin(final ZipNode<?> node) {
+		return isOrigin(origin, node);
+	}
+	
+	/**
+	 * @param origin original node at a focus position
+	 * @param node focus node
+	 * @return true if <tt>node</tt> is <tt>origin</tt> or 
+	 *         an unmodified wrapper of it
+	 */
+	protected static boolean isOrigin(final IZipNode origin, final ZipNode<?> node) {
+		return node == origin || (node._source() == origin && !node.isModified());
+	}
+	
+	/**
+	 * @param node focus node of a location with this context
+	 * @return the node to store in the sibling sets, the original
+	 *         node if <tt>node</tt> is unchanged 
+	 */
+	protected IZipNode sibling(final ZipNode<?> node) {
+		return isOrigin(node)? origin : node;
+	}
+
 	/**
 	 * @return parent context
 	 */
@@ -84,18 +215,5 @@ final class Context {
 	protected ZipNode<?> getParentNode() {
 		return parentNode;
 	}
-	
-	/**
-	 * Helper copy function.
-	 * 
-	 * @return a shallow copy of this context
-	 */
-	protected Context copy() {
-		IZipNode[] l = new IZipNode[left.length];
-    	System.arraycopy(left, 0, l, 0, left.length);
-		IZipNode[] r = new IZipNode[right.length];
-    	System.arraycopy(right, 0, r, 0, right.length);
-		return new Context(parentNode, parentContext, l, r);
-	}
 
 }
@@ -0,0 +1,222 @@
+package com.mu.zipper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Internal implementation of <tt>Zipper#diff()</tt>, a lazy
+ * iterator over the changes between two subtrees. Identical
+ * nodes, or unchanged ZipNodes of the same source node, are
+ * skipped without visiting their subtrees. Children are matched
+ * by their source nodes, unmatched children are replaced,
+ * deleted or inserted, matched children out of order are moved.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+final class Diff<T extends IZipNode> implements Iterator<Change<T>> {
+
+	// Pending changes
+	private final ArrayDeque<Change<T>> changes = new ArrayDeque<Change<T>>();
+
+	// Node pairs to compare
+	private final ArrayDeque<Pair> pairs = new ArrayDeque<Pair>();
+
+	protected Diff(final IZipNode a, final IZipNode b) {
+		super();
+		pairs.push(new Pair(a, b, new int[0], new int[0]));
+	}
+
+	public boolean hasNext() {
+		while (changes.isEmpty() && !pairs.isEmpty()) {
+			compare(pairs.pop());
+		}
+		return !changes.isEmpty();
+	}
+
+	public Change<T> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return changes.poll();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * Compares a node pair, adds the changes of the children
+	 * and pushes the matched children pairs.
+	 */
+	private void compare(final Pair p) {
+		if (same(p.a, p.b)) {
+			return;
+		}
+		Object ca = Children.of(p.a);
+		Object cb = Children.of(p.b);
+		if (source(p.a) != source(p.b) || (ca == null) != (cb == null)) {
+			add(Change.Type.REPLACE, p.pathA, p.pathB, p.b);
+			return;
+		}
+		int na = Children.size(ca);
+		int nb = Children.size(cb);
+
+		// Common prefix and suffix of the same source nodes
+		int start = 0;
+		while (start < na && start < nb && source(Children.get(ca, start)) == source(Children.get(cb, start))) {
+			start++;
+		}
+		int end = 0;
+		while (end < na - start && end < nb - start
+				&& source(Children.get(ca, na - end - 1)) == source(Children.get(cb, nb - end - 1))) {
+			end++;
+		}
+
+		// Match the remaining children by source node
+		int[] matchA = new int[na - start - end];
+		int[] matchB = new int[nb - start - end];
+		Arrays.fill(matchA, -1);
+		Arrays.fill(matchB, -1);
+		IdentityHashMap<IZipNode, ArrayDeque<Integer>> index = new IdentityHashMap<IZipNode, ArrayDeque<Integer>>();
+		for (int i = 0; i < matchA.length; i++) {
+			IZipNode s = source(Children.get(ca, start + i));
+			ArrayDeque<Integer> l = index.get(s);
+			if (l == null) {
+				l = new ArrayDeque<Integer>();
+				index.put(s, l);
+			}
+			l.add(i);
+		}
+		for (int i = 0; i < matchB.length; i++) {
+			ArrayDeque<Integer> l = index.get(source(Children.get(cb, start + i)));
+			if (l != null && !l.isEmpty()) {
+				matchB[i] = l.poll();
+				matchA[matchB[i]] = i;
+			}
+		}
+		boolean[] stable = stable(matchB);
+
+		// Changes of the children
+		for (int i = 0; i < Math.max(matchA.length, matchB.length); i++) {
+			boolean deleted = i < matchA.length && matchA[i] < 0;
+			boolean inserted = i < matchB.length && matchB[i] < 0;
+			if (deleted && inserted) {
+				add(Change.Type.REPLACE, child(p.pathA, start + i), child(p.pathB, start + i), Children.get(cb, start + i));
+			} else if (deleted) {
+				add(Change.Type.DELETE, child(p.pathA, start + i), null, Children.get(ca, start + i));
+			} else if (inserted) {
+				add(Change.Type.INSERT, null, child(p.pathB, start + i), Children.get(cb, start + i));
+			}
+			if (i < matchB.length && matchB[i] >= 0 && !stable[i]) {
+				add(Change.Type.MOVE, child(p.pathA, start + matchB[i]), child(p.pathB, start + i), Children.get(cb, start + i));
+			}
+		}
+
+		// Children pairs, pushed in reverse order
+		for (int i = nb - 1; i >= 0; i--) {
+			int j = (i < start)? i : (i >= nb - end)? na - nb + i : (matchB[i - start] >= 0)? start + matchB[i - start] : -1;
+			if (j >= 0) {
+				IZipNode a = Children.get(ca, j);
+				IZipNode b = Children.get(cb, i);
+				if (!same(a, b)) {
+					pairs.push(new Pair(a, b, child(p.pathA, j), child(p.pathB, i)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param match matched index in the old children, or -1
+	 * @return true for matched children in a longest increasing
+	 *         subsequence, the children not moved
+	 */
+	private static boolean[] stable(final int[] match) {
+		int[] tails = new int[match.length];
+		int[] prev = new int[match.length];
+		int length = 0;
+		for (int i = 0; i < match.length; i++) {
+			if (match[i] < 0) {
+				continue;
+			}
+			int lo = 0;
+			int hi = length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (match[tails[mid]] < match[i]) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			prev[i] = (lo > 0)? tails[lo - 1] : -1;
+			tails[lo] = i;
+			if (lo == length) {
+				length++;
+			}
+		}
+		boolean[] stable = new boolean[match.length];
+		for (int i = (length > 0)? tails[length - 1] : -1; i >= 0; i = prev[i]) {
+			stable[i] = true;
+		}
+		return stable;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void add(final Change.Type type, final int[] from, final int[] to, final IZipNode node) {
+		changes.add(new Change<T>(type, (from != null)? IndexPath.of(from) : null,
+				(to != null)? IndexPath.of(to) : null, (T)source(node)));
+	}
+
+	/**
+	 * @return true if <tt>a</tt> and <tt>b</tt> are the same
+	 *         node or unchanged nodes of the same source node
+	 */
+	protected static boolean same(final IZipNode a, final IZipNode b) {
+		return a == b || (source(a) == source(b) && !modified(a) && !modified(b));
+	}
+
+	private static boolean modified(final IZipNode node) {
+		return node instanceof ZipNode<?> && ((ZipNode<?>)node).isModified();
+	}
+
+	private static IZipNode source(final IZipNode node) {
+		return Children.<IZipNode>source(node);
+	}
+
+	private static int[] child(final int[] path, final int index) {
+		int[] p = Arrays.copyOf(path, path.length + 1);
+		p[path.length] = index;
+		return p;
+	}
+
+	/**
+	 * Nodes to compare and their paths.
+	 */
+	private static final class Pair {
+
+		private final IZipNode a;
+
+		private final IZipNode b;
+
+		private final int[] pathA;
+
+		private final int[] pathB;
+
+		private Pair(final IZipNode a, final IZipNode b, final int[] pathA, final int[] pathB) {
+			super();
+			this.a = a;
+			this.b = b;
+			this.pathA = pathA;
+			this.pathB = pathB;
+		}
+
+	}
+
+}
@@ -0,0 +1,342 @@
+package com.mu.zipper;
+
+import static com.mu.zipper.FlatZipper.NONE;
+
+/**
+ * A cursor into a <tt>FlatZipper</tt>. In difference to
+ * <tt>Loc</tt> a cursor is mutable, the move and edit methods
+ * change the focus of this cursor and return it, no objects
+ * are allocated per move. Use <tt>copy()</tt> or <tt>node()</tt>
+ * and <tt>moveTo()</tt> to keep a position.
+ *
+ * Edits are written to the overlay of the zipper and are
+ * visible to all cursors of the zipper. A cursor on a
+ * removed node must not be used.
+ *
+ * @author Adam Smyczek
+ */
+public final class FlatLoc {
+
+	private final FlatZipper zipper;
+
+	// The node in focus
+	private int node;
+
+	protected FlatLoc(final FlatZipper zipper, final int node) {
+		super();
+		this.zipper = zipper;
+		this.node = node;
+	}
+
+	/**
+	 * @return the zipper of this cursor
+	 */
+	public FlatZipper zipper() {
+		return zipper;
+	}
+
+	/**
+	 * @return the node in focus
+	 */
+	public int node() {
+		return node;
+	}
+
+	/**
+	 * @return payload of the node in focus
+	 */
+	public int payload() {
+		return zipper.payload(node);
+	}
+
+	/**
+	 * @return new cursor at the same node
+	 */
+	public FlatLoc copy() {
+		return new FlatLoc(zipper, node);
+	}
+
+	// ---- Location predicates ----
+
+	/**
+	 * @return true if this cursor marks the root node
+	 */
+	public boolean isTop() {
+		return zipper.parent(node) == NONE;
+	}
+
+	/**
+	 * @return true if this cursor marks the most left sibling node
+	 */
+	public boolean isFirst() {
+		return zipper.prevSibling(node) == NONE;
+	}
+
+	/**
+	 * @return true if this cursor marks the most right sibling node
+	 */
+	public boolean isLast() {
+		return zipper.nextSibling(node) == NONE;
+	}
+
+	/**
+	 * @return true if the node in focus has no children
+	 */
+	public boolean isLeaf() {
+		return zipper.firstChild(node) == NONE;
+	}
+
+	/**
+	 * @return true if the node in focus has children
+	 */
+	public boolean hasChildren() {
+		return zipper.firstChild(node) != NONE;
+	}
+
+	/**
+	 * @return true if this cursor marks the last node
+	 * in a deep-first traversal order
+	 */
+	public boolean isEnd() {
+		if (hasChildren()) {
+			return false;
+		}
+		for (int n = node; n != NONE; n = zipper.parent(n)) {
+			if (zipper.nextSibling(n) != NONE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return depth of the node in focus, 0 for the root node
+	 */
+	public int depth() {
+		int depth = 0;
+		for (int n = zipper.parent(node); n != NONE; n = zipper.parent(n)) {
+			depth++;
+		}
+		return depth;
+	}
+
+	// ---- Traversing the zipper ----
+
+	/**
+	 * Move to <tt>node</tt>.
+	 *
+	 * @param node id
+	 * @return this cursor
+	 * @throws ZipperException if <tt>node</tt> is not a node id
+	 */
+	public FlatLoc moveTo(final int node) {
+		if (node < 0 || node >= zipper.size()) {
+			throw new ZipperException("Invalid node id!");
+		}
+		this.node = node;
+		return this;
+	}
+
+	/**
+	 * Move down to the first/most left child node
+	 *
+	 * @return this cursor
+	 */
+	public FlatLoc down() {
+		return down(0);
+	}
+
+	/**
+	 * Move down to the n-th node, O(index).
+	 *
+	 * @param index of the n-th node
+	 * @return this cursor
+	 * @throws ZipperException if this node is a leaf node or index out of bound
+	 */
+	public FlatLoc down(final int index) {
+		int n = (index >= 0)? zipper.firstChild(node) : NONE;
+		for (int i = 0; i < index && n != NONE; i++) {
+			n = zipper.nextSibling(n);
+		}
+		if (n == NONE) {
+			throw new ZipperException("Current node does not have any children or index out of bound!");
+		}
+		node = n;
+		return this;
+	}
+
+	/**
+	 * Move up to the parent node.
+	 *
+	 * @return this cursor
+	 * @throws ZipperException if this node is already a root node
+	 */
+	public FlatLoc up() {
+		if (isTop()) {
+			throw new ZipperException("Current node is already the top node!");
+		}
+		node = zipper.parent(node);
+		return this;
+	}
+
+	/**
+	 * Move to the next sibling node.
+	 *
+	 * @return this cursor
+	 * @throws ZipperException if this node is the most right sibling node already
+	 */
+	public FlatLoc right() {
+		if (isLast()) {
+			throw new ZipperException("Current node is already the the most right node!");
+		}
+		node = zipper.nextSibling(node);
+		return this;
+	}
+
+	/**
+	 * Move to the previous sibling node.
+	 *
+	 * @return this cursor
+	 * @throws ZipperException if this node is the most left sibling node already
+	 */
+	public FlatLoc left() {
+		if (isFirst()) {
+			throw new ZipperException("Current node is already the the most left node!");
+		}
+		node = zipper.prevSibling(node);
+		return this;
+	}
+
+	/**
+	 * Move up to the root node.
+	 *
+	 * @return this cursor
+	 */
+	public FlatLoc root() {
+		node = 0;
+		return this;
+	}
+
+	/**
+	 * Move to the next node in a deep-first traversal order.
+	 * Use in combination with <tt>isEnd()</tt> predicate.
+	 *
+	 * @return this cursor
+	 * @throws ZipperException if this node is the last node
+	 */
+	public FlatLoc next() {
+		int n = zipper.firstChild(node);
+		if (n != NONE) {
+			node = n;
+			return this;
+		}
+		for (n = node; n != NONE; n = zipper.parent(n)) {
+			int next = zipper.nextSibling(n);
+			if (next != NONE) {
+				node = next;
+				return this;
+			}
+		}
+		throw new ZipperException("Current node is a top node.");
+	}
+
+	// ---- Altering the tree ----
+
+	/**
+	 * Replaces the payload of the node in focus.
+	 *
+	 * @param payload new payload
+	 * @return this cursor
+	 */
+	public FlatLoc setPayload(final int payload) {
+		zipper.setPayload(node, payload);
+		return this;
+	}
+
+	/**
+	 * Appends a new child node to the node in focus, O(children).
+	 *
+	 * @param payload of the new node
+	 * @return this cursor, the focus is unchanged
+	 */
+	public FlatLoc add(final int payload) {
+		int last = zipper.firstChild(node);
+		if (last == NONE) {
+			zipper.setFirstChild(node, zipper.newNode(node, NONE, NONE, payload));
+		} else {
+			for (int n = zipper.nextSibling(last); n != NONE; n = zipper.nextSibling(n)) {
+				last = n;
+			}
+			zipper.setNextSibling(last, zipper.newNode(node, last, NONE, payload));
+		}
+		return this;
+	}
+
+	/**
+	 * Inserts a new node to the left of the node in focus.
+	 *
+	 * @param payload of the new node
+	 * @return this cursor, the focus is unchanged
+	 * @throws ZipperException if this node is the root node
+	 */
+	public FlatLoc insertLeft(final int payload) {
+		if (isTop()) {
+			throw new ZipperException("Current node is the top node!");
+		}
+		int prev = zipper.prevSibling(node);
+		int n = zipper.newNode(zipper.parent(node), prev, node, payload);
+		if (prev == NONE) {
+			zipper.setFirstChild(zipper.parent(node), n);
+		} else {
+			zipper.setNextSibling(prev, n);
+		}
+		zipper.setPrevSibling(node, n);
+		return this;
+	}
+
+	/**
+	 * Inserts a new node to the right of the node in focus.
+	 *
+	 * @param payload of the new node
+	 * @return this cursor, the focus is unchanged
+	 * @throws ZipperException if this node is the root node
+	 */
+	public FlatLoc insertRight(final int payload) {
+		if (isTop()) {
+			throw new ZipperException("Current node is the top node!");
+		}
+		int next = zipper.nextSibling(node);
+		int n = zipper.newNode(zipper.parent(node), node, next, payload);
+		if (next != NONE) {
+			zipper.setPrevSibling(next, n);
+		}
+		zipper.setNextSibling(node, n);
+		return this;
+	}
+
+	/**
+	 * Removes the node in focus and moves to the parent node.
+	 *
+	 * @return this cursor at the parent node
+	 * @throws ZipperException if this node is the root node
+	 */
+	public FlatLoc remove() {
+		if (isTop()) {
+			throw new ZipperException("Current node is already the top node!");
+		}
+		int parent = zipper.parent(node);
+		int prev = zipper.prevSibling(node);
+		int next = zipper.nextSibling(node);
+		if (prev == NONE) {
+			zipper.setFirstChild(parent, next);
+		} else {
+			zipper.setNextSibling(prev, next);
+		}
+		if (next != NONE) {
+			zipper.setPrevSibling(next, prev);
+		}
+		node = parent;
+		return this;
+	}
+
+}
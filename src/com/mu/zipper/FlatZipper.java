@@ -0,0 +1,290 @@
+package com.mu.zipper;
+
+import java.util.Arrays;
+
+/**
+ * A zipper over a tree encoded in parallel primitive arrays,
+ * for very large trees where the per node objects of the
+ * <tt>IZipNode</tt> zipper dominate the heap. Nodes are
+ * <tt>int</tt> ids, node <tt>0</tt> is the root:
+ * <pre>
+ *   firstChild[n]  - first child of n or NONE
+ *   nextSibling[n] - next sibling of n or NONE
+ *   parent[n]      - parent of n, NONE for the root
+ *   payload[n]     - user data index of n
+ * </pre>
+ * The arrays are never modified, edits are stored in an
+ * overlay: new nodes are appended after the last array node,
+ * changed links and payloads of array nodes are kept in
+ * small primitive maps. Navigation and edits use <tt>FlatLoc</tt>
+ * cursors, see <tt>loc()</tt>.
+ *
+ * Flat trees do not distinguish leaf nodes and nodes with
+ * an empty children list. A zipper is not thread safe.
+ *
+ * @author Adam Smyczek
+ */
+public final class FlatZipper {
+
+	/**
+	 * No node
+	 */
+	public static final int NONE = -1;
+
+	// Initial capacity of the overlay
+	private static final int MIN_CAPACITY = 16;
+
+	// Tree arrays
+	private final int[] firstChild;
+	private final int[] nextSibling;
+	private final int[] parent;
+	private final int[] payload;
+
+	// Previous siblings of the array nodes, computed on demand
+	private int[] prevSibling;
+
+	// Overlay, links and payloads of array nodes
+	private final IntMap firstOverlay = new IntMap();
+	private final IntMap nextOverlay = new IntMap();
+	private final IntMap prevOverlay = new IntMap();
+	private final IntMap payloadOverlay = new IntMap();
+
+	// Overlay, appended nodes
+	private int[] addedFirst = new int[0];
+	private int[] addedNext = new int[0];
+	private int[] addedPrev = new int[0];
+	private int[] addedParent = new int[0];
+	private int[] addedPayload = new int[0];
+	private int added = 0;
+
+	/**
+	 * Creates a zipper over the tree arrays, the arrays must
+	 * have the same length and must not be modified afterwards.
+	 *
+	 * @param firstChild first child of every node
+	 * @param nextSibling next sibling of every node
+	 * @param parent parent of every node
+	 * @param payload payload of every node
+	 * @throws IllegalArgumentException for arrays of different
+	 *         length or if node 0 is not a root node
+	 */
+	public FlatZipper(final int[] firstChild, final int[] nextSibling, final int[] parent, final int[] payload) {
+		super();
+		if (firstChild.length == 0 || nextSibling.length != firstChild.length
+				|| parent.length != firstChild.length || payload.length != firstChild.length) {
+			throw new IllegalArgumentException("Empty tree or arrays of different length!");
+		}
+		if (parent[0] != NONE || nextSibling[0] != NONE) {
+			throw new IllegalArgumentException("Node 0 is not a root node!");
+		}
+		this.firstChild = firstChild;
+		this.nextSibling = nextSibling;
+		this.parent = parent;
+		this.payload = payload;
+	}
+
+	/**
+	 * @return new cursor at the root node
+	 */
+	public FlatLoc loc() {
+		return new FlatLoc(this, 0);
+	}
+
+	/**
+	 * @return number of node ids, array and appended nodes
+	 *         including removed nodes
+	 */
+	public int size() {
+		return firstChild.length + added;
+	}
+
+	/**
+	 * @param node id
+	 * @return first child of <tt>node</tt> or <tt>NONE</tt>
+	 */
+	public int firstChild(final int node) {
+		int i = node - firstChild.length;
+		return (i < 0)? firstOverlay.get(node, firstChild[node]) : addedFirst[i];
+	}
+
+	/**
+	 * @param node id
+	 * @return next sibling of <tt>node</tt> or <tt>NONE</tt>
+	 */
+	public int nextSibling(final int node) {
+		int i = node - firstChild.length;
+		return (i < 0)? nextOverlay.get(node, nextSibling[node]) : addedNext[i];
+	}
+
+	/**
+	 * The first call computes the previous siblings of all
+	 * array nodes, one <tt>int</tt> per node.
+	 *
+	 * @param node id
+	 * @return previous sibling of <tt>node</tt> or <tt>NONE</tt>
+	 */
+	public int prevSibling(final int node) {
+		int i = node - firstChild.length;
+		return (i < 0)? prevOverlay.get(node, prevSiblings()[node]) : addedPrev[i];
+	}
+
+	/**
+	 * @param node id
+	 * @return parent of <tt>node</tt>, <tt>NONE</tt> for the root
+	 */
+	public int parent(final int node) {
+		int i = node - firstChild.length;
+		return (i < 0)? parent[node] : addedParent[i];
+	}
+
+	/**
+	 * @param node id
+	 * @return payload of <tt>node</tt>
+	 */
+	public int payload(final int node) {
+		int i = node - firstChild.length;
+		return (i < 0)? payloadOverlay.get(node, payload[node]) : addedPayload[i];
+	}
+
+	// ---- Overlay ----
+
+	protected void setFirstChild(final int node, final int value) {
+		int i = node - firstChild.length;
+		if (i < 0) {
+			firstOverlay.put(node, value);
+		} else {
+			addedFirst[i] = value;
+		}
+	}
+
+	protected void setNextSibling(final int node, final int value) {
+		int i = node - firstChild.length;
+		if (i < 0) {
+			nextOverlay.put(node, value);
+		} else {
+			addedNext[i] = value;
+		}
+	}
+
+	protected void setPrevSibling(final int node, final int value) {
+		int i = node - firstChild.length;
+		if (i < 0) {
+			prevOverlay.put(node, value);
+		} else {
+			addedPrev[i] = value;
+		}
+	}
+
+	protected void setPayload(final int node, final int value) {
+		int i = node - firstChild.length;
+		if (i < 0) {
+			payloadOverlay.put(node, value);
+		} else {
+			addedPayload[i] = value;
+		}
+	}
+
+	/**
+	 * Appends a new node, the links of the
+	 * neighbour nodes are not updated.
+	 *
+	 * @return id of the new node
+	 */
+	protected int newNode(final int parent, final int prev, final int next, final int payload) {
+		if (added == addedFirst.length) {
+			int capacity = Math.max(MIN_CAPACITY, added * 2);
+			addedFirst = Arrays.copyOf(addedFirst, capacity);
+			addedNext = Arrays.copyOf(addedNext, capacity);
+			addedPrev = Arrays.copyOf(addedPrev, capacity);
+			addedParent = Arrays.copyOf(addedParent, capacity);
+			addedPayload = Arrays.copyOf(addedPayload, capacity);
+		}
+		addedFirst[added] = NONE;
+		addedNext[added] = next;
+		addedPrev[added] = prev;
+		addedParent[added] = parent;
+		addedPayload[added] = payload;
+		return firstChild.length + added++;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @return previous siblings of all array nodes
+	 */
+	private int[] prevSiblings() {
+		if (prevSibling == null) {
+			int[] prev = new int[nextSibling.length];
+			Arrays.fill(prev, NONE);
+			for (int n = 0; n < nextSibling.length; n++) {
+				if (nextSibling[n] != NONE) {
+					prev[nextSibling[n]] = n;
+				}
+			}
+			prevSibling = prev;
+		}
+		return prevSibling;
+	}
+
+	/**
+	 * Open addressing map of non-negative <tt>int</tt> keys.
+	 */
+	private static final class IntMap {
+
+		private int[] keys = new int[0];
+
+		private int[] values = new int[0];
+
+		private int size = 0;
+
+		private int get(final int key, final int defaultValue) {
+			if (size == 0) {
+				return defaultValue;
+			}
+			int mask = keys.length - 1;
+			for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				} else if (keys[i] == NONE) {
+					return defaultValue;
+				}
+			}
+		}
+
+		private void put(final int key, final int value) {
+			if ((size + 1) * 2 > keys.length) {
+				resize();
+			}
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (keys[i] != NONE && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == NONE) {
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		private void resize() {
+			int[] k = keys;
+			int[] v = values;
+			keys = new int[Math.max(MIN_CAPACITY, k.length * 2)];
+			values = new int[keys.length];
+			Arrays.fill(keys, NONE);
+			size = 0;
+			for (int i = 0; i < k.length; i++) {
+				if (k[i] != NONE) {
+					put(k[i], v[i]);
+				}
+			}
+		}
+
+		private static int hash(final int key) {
+			return key * 0x9E3779B9;
+		}
+
+	}
+
+}
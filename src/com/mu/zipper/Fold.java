@@ -0,0 +1,172 @@
+package com.mu.zipper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Internal implementation of <tt>Zipper#fold()</tt> and
+ * <tt>Zipper#parallelFold()</tt>. Both work directly on the
+ * children of ZipNodes and source nodes, see <tt>Children</tt>,
+ * no locations or ZipNode wrappers are created.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> the concrete node type
+ * @param <R> the result type
+ */
+final class Fold<T extends IZipNode, R> {
+
+	// Initial stack size
+	private static final int INITIAL_DEPTH = 16;
+
+	private final Function<? super T, ? extends R> leaf;
+
+	private final BiFunction<? super T, List<R>, ? extends R> combine;
+
+	protected Fold(final Function<? super T, ? extends R> leaf, final BiFunction<? super T, List<R>, ? extends R> combine) {
+		super();
+		this.leaf = leaf;
+		this.combine = combine;
+	}
+
+	/**
+	 * Sequential fold with an explicit stack, the depth of
+	 * the tree is not limited by the thread stack size.
+	 *
+	 * @param node subtree root
+	 * @return result for <tt>node</tt>
+	 */
+	protected R fold(final IZipNode node) {
+		Object ch = Children.of(node);
+		if (Children.size(ch) == 0) {
+			return leaf.apply(Children.<T>source(node));
+		}
+		IZipNode[] nodes = new IZipNode[INITIAL_DEPTH];
+		Object[] children = new Object[INITIAL_DEPTH];
+		Object[][] results = new Object[INITIAL_DEPTH][];
+		int[] next = new int[INITIAL_DEPTH];
+		int top = 0;
+		nodes[0] = node;
+		children[0] = ch;
+		results[0] = new Object[Children.size(ch)];
+		while (true) {
+			if (next[top] < results[top].length) {
+				IZipNode n = Children.get(children[top], next[top]);
+				Object nch = Children.of(n);
+				if (Children.size(nch) == 0) {
+					results[top][next[top]++] = leaf.apply(Children.<T>source(n));
+					continue;
+				}
+				// Push the child
+				top++;
+				if (top == nodes.length) {
+					nodes = Arrays.copyOf(nodes, top * 2);
+					children = Arrays.copyOf(children, top * 2);
+					results = Arrays.copyOf(results, top * 2);
+					next = Arrays.copyOf(next, top * 2);
+				}
+				nodes[top] = n;
+				children[top] = nch;
+				results[top] = new Object[Children.size(nch)];
+				next[top] = 0;
+			} else {
+				// All children folded, combine and pop
+				R r = combine(nodes[top], results[top]);
+				nodes[top] = null;
+				children[top] = null;
+				results[top] = null;
+				if (top == 0) {
+					return r;
+				}
+				top--;
+				results[top][next[top]++] = r;
+			}
+		}
+	}
+
+	/**
+	 * @param node subtree root
+	 * @param threshold surplus queued task threshold
+	 * @return fork/join task folding the subtree of <tt>node</tt>
+	 */
+	protected RecursiveTask<R> task(final IZipNode node, final int threshold) {
+		return new NodeTask(node, threshold, 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private R combine(final IZipNode node, final Object[] results) {
+		return combine.apply(Children.<T>source(node), (List<R>)Arrays.asList(results));
+	}
+
+	/**
+	 * Folds the subtree of a node, the children are folded
+	 * by a <tt>RangeTask</tt>.
+	 */
+	private final class NodeTask extends RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final IZipNode node;
+
+		private final int threshold;
+
+		// Nesting of inlined node tasks on the current thread
+		private final int depth;
+
+		protected NodeTask(final IZipNode node, final int threshold, final int depth) {
+			super();
+			this.node = node;
+			this.threshold = threshold;
+			this.depth = depth;
+		}
+
+		@Override
+		protected R compute() {
+			if (depth >= ChildRangeTask.MAX_INLINE_DEPTH) {
+				return fold(node);
+			}
+			Object ch = Children.of(node);
+			int size = Children.size(ch);
+			if (size == 0) {
+				return leaf.apply(Children.<T>source(node));
+			}
+			Object[] results = new Object[size];
+			new RangeTask(ch, results, 0, size, threshold, depth).compute();
+			return combine(node, results);
+		}
+
+	}
+
+	/**
+	 * Folds a range of children into the results array.
+	 */
+	private final class RangeTask extends ChildRangeTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object children;
+
+		private final Object[] results;
+
+		protected RangeTask(final Object children, final Object[] results, final int from, final int to, final int threshold, final int depth) {
+			super(from, to, threshold, depth);
+			this.children = children;
+			this.results = results;
+		}
+
+		@Override
+		protected ChildRangeTask range(final int from, final int to) {
+			return new RangeTask(children, results, from, to, threshold, depth);
+		}
+
+		@Override
+		protected void child(final int index) {
+			results[index] = new NodeTask(Children.get(children, index), threshold, depth + 1).compute();
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.mu.zipper;
+
+/**
+ * Node equivalence used by <tt>Interner</tt> to find structurally
+ * equal subtrees. The equivalence compares the nodes only, the
+ * children are compared by the interner.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public interface IEquivalence<T extends IZipNode> {
+
+	/**
+	 * @param a node
+	 * @param b node
+	 * @return true if <tt>a</tt> and <tt>b</tt> are equivalent, ignoring the children
+	 */
+	abstract public boolean equivalent(T a, T b);
+
+	/**
+	 * @param node the node
+	 * @return hash code consistent with <tt>equivalent()</tt>
+	 */
+	abstract public int hash(T node);
+
+}
@@ -0,0 +1,47 @@
+package com.mu.zipper;
+
+/**
+ * Optional extension of <tt>IZipNode</tt> for nodes with
+ * many or expensive children, for example nodes backed by
+ * a database or a generator. The Zipper reads the children
+ * of such nodes by index and in chunks on demand, instead
+ * of copying <tt>getChildren()</tt> when a node is visited
+ * first. <tt>getChildren()</tt> is still used by
+ * <tt>Zipper.unzip()</tt> to write changes back.
+ *
+ * The children must not change while the node is zipped.
+ * Every index should return the same node instance, the
+ * Zipper caches fetched chunks per zipped node.
+ *
+ * @author Adam Smyczek
+ */
+public interface IIndexedZipNode extends IZipNode {
+
+	/**
+	 * @return number of children, negative for a leaf node
+	 */
+	abstract public int childCount();
+
+	/**
+	 * @param index of the child, 0 to <tt>childCount() - 1</tt>
+	 * @return the child at <tt>index</tt>
+	 */
+	abstract public IZipNode childAt(int index);
+
+	/**
+	 * Fetches a range of children, override for sources
+	 * supporting bulk reads.
+	 *
+	 * @param from index (inclusive)
+	 * @param to index (exclusive)
+	 * @return array of the children from <tt>from</tt> to <tt>to</tt>
+	 */
+	default public IZipNode[] childrenRange(final int from, final int to) {
+		IZipNode[] nodes = new IZipNode[to - from];
+		for (int i = from; i < to; i++) {
+			nodes[i - from] = childAt(i);
+		}
+		return nodes;
+	}
+
+}
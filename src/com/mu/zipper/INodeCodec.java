@@ -0,0 +1,32 @@
+package com.mu.zipper;
+
+import java.util.List;
+
+/**
+ * Payload codec used by <tt>LocWriter</tt> and <tt>LocReader</tt>
+ * to store and re-create the nodes of a tree.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public interface INodeCodec<T extends IZipNode> {
+
+	/**
+	 * @param node the node to encode
+	 * @return node payload without the children
+	 */
+	abstract public byte[] encode(T node);
+
+	/**
+	 * Creates a node from its payload and its decoded children.
+	 * Shared subtrees are decoded once, the same node instance
+	 * may be passed as child of several nodes.
+	 *
+	 * @param payload node payload
+	 * @param children the children, null for leaf nodes
+	 * @return a new node
+	 */
+	abstract public T decode(byte[] payload, List<T> children);
+
+}
@@ -0,0 +1,25 @@
+package com.mu.zipper;
+
+import java.util.List;
+
+/**
+ * Node factory used by <tt>Zipper.rebuild()</tt> to create
+ * new tree nodes instead of changing the source nodes.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public interface INodeFactory<T extends IZipNode> {
+
+	/**
+	 * Creates a copy of <tt>source</tt> with new children.
+	 * The <tt>source</tt> node must not be changed.
+	 *
+	 * @param source the source node to copy
+	 * @param children the new children, a read-only list
+	 * @return a new node
+	 */
+	abstract public T create(T source, List<T> children);
+
+}
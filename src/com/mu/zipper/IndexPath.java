@@ -0,0 +1,160 @@
+package com.mu.zipper;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compact, immutable path of child indexes from the root
+ * to a location, see <tt>Loc#indexPath()</tt> and
+ * <tt>Loc#locate(IndexPath)</tt>. The indexes are stored
+ * as unsigned varints, one byte for indexes below 128,
+ * which keeps large numbers of stored paths small.
+ *
+ * @author Adam Smyczek
+ */
+public final class IndexPath implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The path of the root location.
+	 */
+	public static final IndexPath ROOT = new IndexPath(new byte[0], 0);
+
+	// Varint encoded child indexes
+	private final byte[] bytes;
+
+	// Number of indexes
+	private final int depth;
+
+	private IndexPath(final byte[] bytes, final int depth) {
+		super();
+		this.bytes = bytes;
+		this.depth = depth;
+	}
+
+	/**
+	 * @param indexes child indexes from the root
+	 * @return index path
+	 * @throws IllegalArgumentException for negative indexes
+	 */
+	public static IndexPath of(final int... indexes) {
+		if (indexes.length == 0) {
+			return ROOT;
+		}
+		byte[] buf = new byte[indexes.length * 5];
+		int pos = 0;
+		for (int i : indexes) {
+			if (i < 0) throw new IllegalArgumentException("Negative index!");
+			while ((i & ~0x7F) != 0) {
+				buf[pos++] = (byte)((i & 0x7F) | 0x80);
+				i >>>= 7;
+			}
+			buf[pos++] = (byte)i;
+		}
+		return new IndexPath(Arrays.copyOf(buf, pos), indexes.length);
+	}
+
+	/**
+	 * @param bytes encoded path, see <tt>toBytes()</tt>
+	 * @return index path
+	 * @throws IllegalArgumentException if <tt>bytes</tt> is not a valid path
+	 */
+	public static IndexPath fromBytes(final byte[] bytes) {
+		return new IndexPath(bytes.clone(), count(bytes));
+	}
+
+	/**
+	 * @return number of indexes, the depth of the location
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * @return the child indexes from the root
+	 */
+	public int[] toArray() {
+		int[] indexes = new int[depth];
+		int pos = 0;
+		for (int k = 0; k < depth; k++) {
+			int i = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = bytes[pos++];
+				i |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			indexes[k] = i;
+		}
+		return indexes;
+	}
+
+	/**
+	 * @return the encoded path
+	 */
+	public byte[] toBytes() {
+		return bytes.clone();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		return obj instanceof IndexPath && Arrays.equals(bytes, ((IndexPath)obj).bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Validates the encoded path.
+	 *
+	 * @return number of indexes in <tt>bytes</tt>
+	 */
+	private static int count(final byte[] bytes) {
+		int count = 0;
+		int length = 0;
+		for (byte b : bytes) {
+			length++;
+			if (length > 5 || length == 5 && (b & 0xF8) != 0) {
+				throw new IllegalArgumentException("Invalid index path!");
+			}
+			if (b >= 0) {
+				// Canonical encoding, no trailing zero groups
+				if (b == 0 && length > 1) {
+					throw new IllegalArgumentException("Invalid index path!");
+				}
+				count++;
+				length = 0;
+			}
+		}
+		if (length != 0) {
+			throw new IllegalArgumentException("Invalid index path!");
+		}
+		return count;
+	}
+
+	/**
+	 * Validates deserialized paths.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		try {
+			if (bytes != null && count(bytes) == depth) {
+				return this;
+			}
+		} catch (IllegalArgumentException e) {
+			// Handled below
+		}
+		throw new InvalidObjectException("Invalid index path!");
+	}
+
+}
@@ -0,0 +1,300 @@
+package com.mu.zipper;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal sequence over the children of an <tt>IIndexedZipNode</tt>.
+ * Children are fetched on demand in chunks and cached by the
+ * <tt>Chunks</tt> shared by all sequences of one zipped node.
+ *
+ * A sequence is a window into the children with a small set of
+ * replaced positions (patches). Slices, the sibling moves of a
+ * location and <tt>join()</tt> on adjacent windows keep the
+ * sequence indexed, replacing a few children does not fetch
+ * the other children. All other edits copy the nodes into an
+ * array sequence.
+ *
+ * @author Adam Smyczek
+ */
+final class IndexedSeq extends Seq {
+
+	// Number of children fetched at once
+	private static final int CHUNK_SIZE = 256;
+
+	// Max number of patches before a join falls back to an array
+	private static final int MAX_PATCHES = 32;
+
+	// No patches
+	private static final int[] NO_INDEXES = new int[0];
+	private static final IZipNode[] NO_NODES = new IZipNode[0];
+
+	// Children cache
+	private final Chunks chunks;
+
+	// Start of the window in the children
+	private final int from;
+
+	// Sorted children indexes of the patches, may contain
+	// indexes outside of the window
+	private final int[] patchIndexes;
+
+	// Nodes of the patches
+	private final IZipNode[] patchNodes;
+
+	private IndexedSeq(final Chunks chunks, final int from, final int size,
+			final int[] patchIndexes, final IZipNode[] patchNodes) {
+		super(size);
+		this.chunks = chunks;
+		this.from = from;
+		this.patchIndexes = patchIndexes;
+		this.patchNodes = patchNodes;
+	}
+
+	/**
+	 * @param node indexed node
+	 * @param count number of children of <tt>node</tt>
+	 * @return sequence of all children of <tt>node</tt>
+	 */
+	protected static Seq of(final IIndexedZipNode node, final int count) {
+		return (count == 0)? EMPTY : new IndexedSeq(new Chunks(node, count), 0, count, NO_INDEXES, NO_NODES);
+	}
+
+	/**
+	 * Joins adjacent windows of the same children without
+	 * fetching children, see <tt>Seq#join()</tt>.
+	 *
+	 * @return joined sequence or null if not possible
+	 */
+	protected static Seq join(final IndexedSeq left, final IZipNode node, final IndexedSeq right) {
+		int index = left.from + left.size();
+		if (left.chunks != right.chunks || right.from != index + 1) {
+			return null;
+		}
+		int[] indexes = new int[MAX_PATCHES];
+		IZipNode[] nodes = new IZipNode[MAX_PATCHES];
+		int count = left.copyPatches(indexes, nodes, 0);
+		if (count < 0) {
+			return null;
+		}
+		if (node != left.chunks.get(index)) {
+			if (count == MAX_PATCHES) {
+				return null;
+			}
+			indexes[count] = index;
+			nodes[count++] = node;
+		}
+		count = right.copyPatches(indexes, nodes, count);
+		if (count < 0) {
+			return null;
+		}
+		return new IndexedSeq(left.chunks, left.from, left.size() + right.size() + 1,
+				Arrays.copyOf(indexes, count), Arrays.copyOf(nodes, count));
+	}
+
+	/**
+	 * @return replaced children in this window, modified ZipNodes
+	 *         or replacement nodes
+	 */
+	protected IZipNode[] patches() {
+		int lo = lower(from);
+		int hi = lower(from + size());
+		return Arrays.copyOfRange(patchNodes, lo, hi);
+	}
+
+	@Override
+	protected IZipNode get(final int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		return at(from + index);
+	}
+
+	/**
+	 * Empty slices keep their position for <tt>join()</tt>.
+	 */
+	@Override
+	protected Seq slice(final int from, final int to) {
+		return new IndexedSeq(chunks, this.from + from, to - from, patchIndexes, patchNodes);
+	}
+
+	@Override
+	protected IZipNode first() {
+		return get(0);
+	}
+
+	@Override
+	protected Seq rest() {
+		return slice(1, size());
+	}
+
+	@Override
+	protected IZipNode last() {
+		return get(size() - 1);
+	}
+
+	@Override
+	protected Seq init() {
+		return slice(0, size() - 1);
+	}
+
+	/**
+	 * Extends the window to the front, <tt>node</tt> replaces
+	 * the child before the window.
+	 */
+	@Override
+	protected Seq cons(final IZipNode node) {
+		Seq s = (from > 0)? extend(from - 1, from - 1, node) : null;
+		return (s != null)? s : super.cons(node);
+	}
+
+	/**
+	 * Extends the window to the back, <tt>node</tt> replaces
+	 * the child after the window.
+	 */
+	@Override
+	protected Seq snoc(final IZipNode node) {
+		int i = from + size();
+		Seq s = (i < chunks.count)? extend(from, i, node) : null;
+		return (s != null)? s : super.snoc(node);
+	}
+
+	@Override
+	protected void copyElements(final IZipNode[] dest, final int offset) {
+		for (int i = 0; i < size(); i++) {
+			dest[offset + i] = get(i);
+		}
+	}
+
+	@Override
+	public Iterator<IZipNode> iterator() {
+		return new Iterator<IZipNode>() {
+
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < size();
+			}
+
+			public IZipNode next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @return the child at children index <tt>index</tt>
+	 */
+	private IZipNode at(final int index) {
+		int p = Arrays.binarySearch(patchIndexes, index);
+		return (p >= 0)? patchNodes[p] : chunks.get(index);
+	}
+
+	/**
+	 * Extends the window by one child at <tt>index</tt>, 
+	 * patched with <tt>node</tt> if it is not the child.
+	 *
+	 * @return the extended sequence, null if <tt>MAX_PATCHES</tt> is exceeded
+	 */
+	private Seq extend(final int from, final int index, final IZipNode node) {
+		if (node == at(index)) {
+			return new IndexedSeq(chunks, from, size() + 1, patchIndexes, patchNodes);
+		}
+		int p = Arrays.binarySearch(patchIndexes, index);
+		if (p >= 0) {
+			IZipNode[] nodes = patchNodes.clone();
+			nodes[p] = node;
+			return new IndexedSeq(chunks, from, size() + 1, patchIndexes, nodes);
+		}
+		if (patchIndexes.length >= MAX_PATCHES) {
+			return null;
+		}
+		p = -p - 1;
+		int[] indexes = new int[patchIndexes.length + 1];
+		IZipNode[] nodes = new IZipNode[patchNodes.length + 1];
+		System.arraycopy(patchIndexes, 0, indexes, 0, p);
+		System.arraycopy(patchNodes, 0, nodes, 0, p);
+		indexes[p] = index;
+		nodes[p] = node;
+		System.arraycopy(patchIndexes, p, indexes, p + 1, patchIndexes.length - p);
+		System.arraycopy(patchNodes, p, nodes, p + 1, patchNodes.length - p);
+		return new IndexedSeq(chunks, from, size() + 1, indexes, nodes);
+	}
+
+	/**
+	 * @return position of the first patch index &gt;= <tt>index</tt>
+	 */
+	private int lower(final int index) {
+		int p = Arrays.binarySearch(patchIndexes, index);
+		return (p >= 0)? p : -p - 1;
+	}
+
+	/**
+	 * Appends the patches inside the window to <tt>indexes</tt>
+	 * and <tt>nodes</tt> at position <tt>count</tt>.
+	 *
+	 * @return new number of patches, -1 if <tt>MAX_PATCHES</tt> is exceeded
+	 */
+	private int copyPatches(final int[] indexes, final IZipNode[] nodes, final int count) {
+		int lo = lower(from);
+		int hi = lower(from + size());
+		if (count + hi - lo > MAX_PATCHES) {
+			return -1;
+		}
+		System.arraycopy(patchIndexes, lo, indexes, count, hi - lo);
+		System.arraycopy(patchNodes, lo, nodes, count, hi - lo);
+		return count + hi - lo;
+	}
+
+	/**
+	 * Cache of fetched children chunks of an indexed node.
+	 * Concurrent readers share the chunk stored first, the
+	 * same index always returns the same node instance.
+	 */
+	private static final class Chunks {
+
+		private final IIndexedZipNode node;
+
+		private final int count;
+
+		private final ConcurrentHashMap<Integer, IZipNode[]> chunks = new ConcurrentHashMap<Integer, IZipNode[]>();
+
+		private Chunks(final IIndexedZipNode node, final int count) {
+			super();
+			this.node = node;
+			this.count = count;
+		}
+
+		private IZipNode get(final int index) {
+			Integer key = index / CHUNK_SIZE;
+			IZipNode[] chunk = chunks.get(key);
+			if (chunk == null) {
+				int start = key * CHUNK_SIZE;
+				int end = Math.min(count, start + CHUNK_SIZE);
+				chunk = node.childrenRange(start, end);
+				if (chunk == null || chunk.length != end - start) {
+					throw new ZipperException("Invalid children range of an indexed node!");
+				}
+				IZipNode[] c = chunks.putIfAbsent(key, chunk);
+				if (c != null) {
+					chunk = c;
+				}
+			}
+			return chunk[index % CHUNK_SIZE];
+		}
+
+	}
+
+}
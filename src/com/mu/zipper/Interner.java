@@ -0,0 +1,263 @@
+package com.mu.zipper;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing of structurally equal subtrees, see
+ * <tt>Zipper.zipInterned()</tt>. Subtrees with equivalent
+ * nodes and the same interned children are mapped to one
+ * shared, unmodified ZipNode. The intern table references
+ * ZipNodes weakly and may be shared by several zipped trees
+ * and threads.
+ *
+ * Zipper edits are not affected, locations never modify a
+ * ZipNode. But <tt>Zipper.unzip()</tt> writes changes to the
+ * source nodes of the shared ZipNodes, use
+ * <tt>Zipper.rebuild()</tt> for interned trees.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public final class Interner<T extends IZipNode> {
+
+	private final IEquivalence<? super T> equivalence;
+
+	private final ZipOptions options;
+
+	// Intern table, every entry maps to itself
+	private final ConcurrentHashMap<Object, Entry> table = new ConcurrentHashMap<Object, Entry>();
+
+	// Cleared entries
+	private final ReferenceQueue<ZipNode<?>> queue = new ReferenceQueue<ZipNode<?>>();
+
+	/**
+	 * @param equivalence node equivalence
+	 */
+	public Interner(final IEquivalence<? super T> equivalence) {
+		this(equivalence, ZipOptions.DEFAULT);
+	}
+
+	/**
+	 * @param equivalence node equivalence
+	 * @param options options of the interned ZipNodes
+	 */
+	public Interner(final IEquivalence<? super T> equivalence, final ZipOptions options) {
+		super();
+		if (equivalence == null) throw new IllegalArgumentException("Equivalence is null!");
+		if (options == null) throw new IllegalArgumentException("Options is null!");
+		this.equivalence = equivalence;
+		this.options = options;
+	}
+
+	/**
+	 * @return number of interned subtrees, including
+	 *         subtrees not collected yet
+	 */
+	public int size() {
+		expunge();
+		return table.size();
+	}
+
+	/**
+	 * Interns the whole tree of <tt>node</tt> bottom-up,
+	 * the tree depth is not limited by the thread stack size.
+	 *
+	 * @param node root node
+	 * @return the interned ZipNode of <tt>node</tt>
+	 */
+	@SuppressWarnings("unchecked")
+	protected ZipNode<T> intern(final T node) {
+		expunge();
+		Object ch = Children.of(node);
+		if (Children.size(ch) == 0) {
+			return intern(node, (ch == null)? null : new IZipNode[0]);
+		}
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(node, ch));
+		ZipNode<T> result = null;
+		while (result == null) {
+			Frame f = stack.peek();
+			if (f.next < f.children.length) {
+				T n = (T)Children.get(f.source, f.next);
+				Object nch = Children.of(n);
+				if (Children.size(nch) == 0) {
+					f.children[f.next++] = intern(n, (nch == null)? null : new IZipNode[0]);
+				} else {
+					stack.push(new Frame(n, nch));
+				}
+			} else {
+				stack.pop();
+				ZipNode<T> z = intern((T)f.node, f.children);
+				if (stack.isEmpty()) {
+					result = z;
+				} else {
+					Frame p = stack.peek();
+					p.children[p.next++] = z;
+				}
+			}
+		}
+		return result;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @return the interned ZipNode for <tt>node</tt> with
+	 *         interned <tt>children</tt>, null for a leaf node
+	 */
+	@SuppressWarnings("unchecked")
+	private ZipNode<T> intern(final T node, final IZipNode[] children) {
+		Probe probe = new Probe(node, children);
+		Entry e = table.get(probe);
+		ZipNode<?> z = (e != null)? e.get() : null;
+		while (z == null) {
+			Seq seq = (children == null)? null : options.toSeq(children);
+			ZipNode<T> n = new ZipNode<T>(node, seq, options, false, false);
+			Entry ne = new Entry(n, probe.hash, queue);
+			e = table.putIfAbsent(ne, ne);
+			z = (e != null)? e.get() : n;
+			if (z == null) {
+				// Cleared concurrently
+				table.remove(e, e);
+			}
+		}
+		return (ZipNode<T>)z;
+	}
+
+	private void expunge() {
+		for (Object e = queue.poll(); e != null; e = queue.poll()) {
+			table.remove(e, e);
+		}
+	}
+
+	/**
+	 * @return true if <tt>node</tt> with interned
+	 *         <tt>children</tt> is equal to <tt>z</tt>
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean equal(final IZipNode node, final Seq children, final ZipNode<?> z) {
+		if (!equivalence.equivalent((T)node, (T)z._source())) {
+			return false;
+		}
+		Seq ch = z.children();
+		if (children == null || ch == null) {
+			return children == ch;
+		}
+		if (children.size() != ch.size()) {
+			return false;
+		}
+		for (int i = 0; i < ch.size(); i++) {
+			if (children.get(i) != ch.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lookup key of a subtree.
+	 */
+	private final class Probe {
+
+		private final IZipNode node;
+
+		private final Seq children;
+
+		private final int hash;
+
+		private Probe(final T node, final IZipNode[] children) {
+			super();
+			this.node = node;
+			this.children = (children == null)? null : Seq.of(children, 0, children.length);
+			int h = equivalence.hash(node);
+			if (children == null) {
+				h = h * 31 - 1;
+			} else {
+				for (IZipNode c : children) {
+					h = h * 31 + System.identityHashCode(c);
+				}
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj instanceof Interner<?>.Entry) {
+				ZipNode<?> z = ((Interner<?>.Entry)obj).get();
+				return z != null && equal(node, children, z);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	/**
+	 * Table entry, a weak reference to an interned ZipNode.
+	 * Cleared entries are only equal to themselves.
+	 */
+	private final class Entry extends WeakReference<ZipNode<?>> {
+
+		private final int hash;
+
+		private Entry(final ZipNode<?> node, final int hash, final ReferenceQueue<ZipNode<?>> queue) {
+			super(node, queue);
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			ZipNode<?> z = get();
+			if (z == null) {
+				return false;
+			}
+			if (obj instanceof Interner<?>.Entry) {
+				ZipNode<?> o = ((Interner<?>.Entry)obj).get();
+				return o != null && (o == z || equal(o._source(), o.children(), z));
+			}
+			return obj instanceof Interner<?>.Probe && obj.equals(this);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+	/**
+	 * A node on the post-order stack.
+	 */
+	private static final class Frame {
+
+		private final IZipNode node;
+
+		// Children container of the source node
+		private final Object source;
+
+		// Interned children
+		private final IZipNode[] children;
+
+		private int next = 0;
+
+		private Frame(final IZipNode node, final Object source) {
+			super();
+			this.node = node;
+			this.source = source;
+			this.children = new IZipNode[Children.size(source)];
+		}
+
+	}
+
+}
@@ -1,11 +1,14 @@
 package com.mu.zipper;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A <tt>Loc</tt> object represents a location inside the
@@ -34,6 +37,10 @@ public final class Loc<T extends IZipNode> {
 	
 	// The context of this location
 	private final Context context;
+	
+	// Cached child locations, see ZipOptions.withChildCache().
+	// Races are benign, locations are immutable.
+	private Loc<T>[] children;
 
 	/**
 	 * Default constructor
@@ -53,6 +60,13 @@ public final class Loc<T extends IZipNode> {
 		return node;
 	}
 	
+	/**
+	 * @return the context of this location
+	 */
+	protected Context context() {
+		return context;
+	}
+	
 	/**
 	 * Returns the underlying source node for this location.
 	 * Caution, all changes to this node are reflected
@@ -91,20 +105,14 @@ public final class Loc<T extends IZipNode> {
 	/**
 	 * Marks the last node in a deep-first traversal order.
 	 * Use this method in combination with <tt>next()</tt>.
+	 * The right most path is tracked by the context, this
+	 * check is O(1).
 	 * 
 	 * @return true if this location is the last node
 	 * in a deep-first traversal order
 	 */
 	public boolean isEnd() {
-		if (hasChildren() || !isLast()) {
-			return false;
-		} else {
-			Loc<T> up = this;
-			while (up.isLast() && !up.isTop()) {
-				up = up.up();
-			}
-			return up.isTop();
-		}
+		return !hasChildren() && context.isLastPath();
 	}
 	
 	// ---- Children accessors ----
@@ -159,6 +167,31 @@ public final class Loc<T extends IZipNode> {
 		throw new ZipperException("This node is a leaf node!");
 	}
 	
+	/**
+	 * A sequential stream of all source nodes of the subtree
+	 * of this location, including this node, in depth-first
+	 * order. The stream reflects all changes to the tree
+	 * visible to this location.
+	 * 
+	 * @return stream of all subtree nodes
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(new SubtreeSpliterator<T>(node), false);
+	}
+	
+	/**
+	 * Same as <tt>stream()</tt>, but a parallel stream. The subtree
+	 * is split at children ranges, the largest pending subtrees
+	 * are split first. Source nodes are read concurrently, 
+	 * <tt>getChildren()</tt> of the source nodes must be safe
+	 * for concurrent reads.
+	 * 
+	 * @return parallel stream of all subtree nodes
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(new SubtreeSpliterator<T>(node), true);
+	}
+	
 	// **** Traversing the zipper ****
 	
 	/**
@@ -171,25 +204,44 @@ public final class Loc<T extends IZipNode> {
 	}
 	
 	/**
-	 * Move down to the n-th node.
+	 * Move down to the n-th node, see <tt>ZipOptions.withChildCache()</tt>
+	 * to cache child locations.
 	 * 
 	 * @param index of the n-th node
 	 * @return the new location
 	 * @throws ZipperException if this node is a leaf node or index out of bound
 	 */
+	@SuppressWarnings("unchecked")
 	public Loc<T> down(int index) {
-		if (hasChildren() && index < node.children().length) {
-			IZipNode[] left = new IZipNode[index];
-			System.arraycopy(node.children(), 0, left, 0, left.length);
-			IZipNode[] right = new IZipNode[node.children().length - index - 1];
-			System.arraycopy(node.children(), index + 1, right, 0, right.length);
-			return new Loc<T>(toZipNode(node.children()[index]), new Context(node, context, left, right));
+		Loc<T>[] cache = children;
+		if (cache != null && index >= 0 && index < cache.length && cache[index] != null) {
+			return cache[index];
+		}
+		if (hasChildren() && index >= 0 && index < node.children().size()) {
+			Seq ch = node.children();
+			IZipNode origin = ch.get(index);
+			Context ctx = new Context(node, context, ch.slice(0, index), ch.slice(index + 1, ch.size()), origin, false, false);
+			Loc<T> loc = new Loc<T>(toZipNode(origin), ctx);
+			if (index < node.options().getChildCache()) {
+				if (cache == null) {
+					cache = (Loc<T>[])new Loc<?>[Math.min(node.options().getChildCache(), ch.size())];
+					children = cache;
+				}
+				cache[index] = loc;
+			}
+			return loc;
 		}
 		throw new ZipperException("Current node does not have any children or index out of bound!");
 	}
 	
 	/**
-	 * Move up to the parent node.
+	 * Move up to the parent node. If neither the node in 
+	 * focus nor its siblings were changed, the location
+	 * references the original parent <tt>ZipNode</tt> instance.
+	 * Unchanged subtrees can be detected using <tt>==</tt>
+	 * on the nodes after <tt>root()</tt>. If only nodes below
+	 * the parent changed, the new parent is marked as modified,
+	 * but its children as unchanged, see <tt>Zipper#unzip()</tt>.
 	 * 
 	 * @return new location
 	 * @throws ZipperException if this node is already a root node
@@ -197,13 +249,14 @@ public final class Loc<T extends IZipNode> {
 	@SuppressWarnings("unchecked")
 	public Loc<T> up() {
 		if (!isTop()) {
-			IZipNode[] ch = new IZipNode[1+
-			                             context.leftNodes().length +
-			                             context.rightNodes().length];
-			System.arraycopy(context.leftNodes(), 0, ch, 0, context.leftNodes().length);
-			ch[context.leftNodes().length] = node;
-			System.arraycopy(context.rightNodes(), 0, ch, context.leftNodes().length + 1, context.rightNodes().length);
-			return new Loc<T>(new ZipNode<T>((T)context.getParentNode()._source(), ch), context.getParentContext());
+			if (!context.isChanged() && context.isOrigin(node)) {
+				return new Loc<T>((ZipNode<T>)context.getParentNode(), context.getParentContext());
+			}
+			ZipNode<T> parent = (ZipNode<T>)context.getParentNode();
+			Seq ch = Seq.join(context.leftNodes(), context.sibling(node), context.rightNodes());
+			boolean structural = context.isStructural() || !context.isOriginSource(node) || parent.isChildrenModified();
+			return new Loc<T>(new ZipNode<T>(parent._source(), ch, node.options(), true, structural), 
+					context.getParentContext());
 		}
 		throw new ZipperException("Current node is already the top node!");
 	}
@@ -217,15 +270,10 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> right() {
 		if (!isLast()) {
-			IZipNode[] left = new IZipNode[context.leftNodes().length + 1];
-        	System.arraycopy(context.leftNodes(), 0, left, 0, context.leftNodes().length);
-        	left[left.length-1] = node;
-        	
-			IZipNode[] right = new IZipNode[context.rightNodes().length - 1];
-        	System.arraycopy(context.rightNodes(), 1, right, 0, context.rightNodes().length - 1);
-        	
-			Context ctx = new Context(context.getParentNode(), context.getParentContext(), left, right);
-			return new Loc<T>(toZipNode(context.rightNodes()[0]), ctx);
+			IZipNode origin = context.rightNodes().first();
+			Context ctx = context.move(context.leftNodes().snoc(context.sibling(node)), 
+					context.rightNodes().rest(), origin, !context.isOrigin(node), !context.isOriginSource(node));
+			return new Loc<T>(toZipNode(origin), ctx);
 		}
 		throw new ZipperException("Current node is already the the most right node!");
 	}
@@ -239,14 +287,10 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> left() {
 		if (!isFirst()) {
-			IZipNode[] left = new IZipNode[context.leftNodes().length - 1];
-        	System.arraycopy(context.leftNodes(), 0, left, 0, context.leftNodes().length - 1);
-        	
-        	IZipNode[] right = new IZipNode[context.rightNodes().length + 1];
-        	System.arraycopy(context.rightNodes(), 0, right, 1, context.rightNodes().length);
-        	right[0] = node;
-			Context ctx = new Context(context.getParentNode(), context.getParentContext(), left, right);
-			return new Loc<T>(toZipNode(context.leftNodes()[left.length]), ctx);
+			IZipNode origin = context.leftNodes().last();
+			Context ctx = context.move(context.leftNodes().init(), 
+					context.rightNodes().cons(context.sibling(node)), origin, !context.isOrigin(node), !context.isOriginSource(node));
+			return new Loc<T>(toZipNode(origin), ctx);
 		}
 		throw new ZipperException("Current node is already the the most left node!");
 	}
@@ -301,6 +345,8 @@ public final class Loc<T extends IZipNode> {
 			return down();
 		} else if (!isLast()) {
 			return right();
+		} else if (context.isLastPath()) {
+			throw new ZipperException("Current node is a top node.");
 		} else {
 			Loc<T> up = this;
 			while (up.isLast() && !up.isTop()) {
@@ -327,10 +373,10 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> add(final T... nodes) {
 		if (!isLeaf()) {
-			IZipNode[] ch = new IZipNode[nodes.length + node.children().length];
-			System.arraycopy(node.children(), 0, ch, 0, node.children().length);
-			System.arraycopy(nodes, 0, ch, node.children().length, nodes.length);
-    		return new Loc<T>(new ZipNode<T>(_source(), ch), context);
+			IZipNode[] add = new IZipNode[nodes.length];
+			System.arraycopy(nodes, 0, add, 0, nodes.length);
+			Seq ch = Seq.concat(node.children(), node.options().toSeq(add));
+    		return new Loc<T>(new ZipNode<T>(_source(), ch, node.options()), context);
 		}
 		throw new ZipperException("Current node is a leaf!");
 	}
@@ -351,11 +397,10 @@ public final class Loc<T extends IZipNode> {
 	 * @throws ZipperException if index out of bounds
 	 */
 	public Loc<T> removeChild(int index) {
-		if (hasChildren() && index < node.getChildren().size()) {
-			IZipNode[] ch = new IZipNode[node.children().length - 1];
-			System.arraycopy(node.children(), 0, ch, 0, index);
-			System.arraycopy(node.children(), index + 1, ch, index, node.children().length - index - 1);
-    		return new Loc<T>(new ZipNode<T>(_source(), ch), context);
+		if (hasChildren() && index >= 0 && index < node.children().size()) {
+			Seq ch = node.children();
+			ch = Seq.concat(ch.slice(0, index), ch.slice(index + 1, ch.size()));
+    		return new Loc<T>(new ZipNode<T>(_source(), ch, node.options()), context);
 		}
 		throw new ZipperException("Current node does not have any children or index out of bound!");
 	}
@@ -368,7 +413,7 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> clear() {
 		if (!isLeaf()) {
-    		return new Loc<T>(new ZipNode<T>(_source(), new IZipNode[0]), context);
+    		return new Loc<T>(new ZipNode<T>(_source(), node.options().toSeq(new IZipNode[0]), node.options()), context);
 		}
 		throw new ZipperException("Current node is a leaf!");
 	}
@@ -380,14 +425,11 @@ public final class Loc<T extends IZipNode> {
 	 * @return new location referencing same node, but updated context
 	 */
 	public Loc<T> insertLeft(T... nodes) {
-		IZipNode[] left = new IZipNode[context.leftNodes().length + nodes.length];
-		System.arraycopy(context.leftNodes(), 0, left, 0, context.leftNodes().length);
-		System.arraycopy(nodes, 0, left, context.leftNodes().length, nodes.length);
-		
-		IZipNode[] right = new IZipNode[context.rightNodes().length];
-		System.arraycopy(context.rightNodes(), 0, right, 0, context.rightNodes().length);
-		
-		Context ctx = new Context(context.getParentNode(), context.getParentContext(), left, right);
+		Seq left = context.leftNodes();
+		for (int i = 0; i < nodes.length; i++) {
+			left = left.snoc(nodes[i]);
+		}
+		Context ctx = context.edit(left, context.rightNodes());
 		return new Loc<T>(node, ctx);
 	}
 	
@@ -398,14 +440,11 @@ public final class Loc<T extends IZipNode> {
 	 * @return new location referencing same node, but updated context
 	 */
 	public Loc<T> insertRight(T... nodes) {
-		IZipNode[] left = new IZipNode[context.leftNodes().length];
-		System.arraycopy(context.leftNodes(), 0, left, 0, context.leftNodes().length);
-		
-		IZipNode[] right = new IZipNode[context.rightNodes().length + nodes.length];
-		System.arraycopy(nodes, 0, right, 0, nodes.length);
-		System.arraycopy(context.rightNodes(), 0, right, nodes.length, context.rightNodes().length);
-		
-		Context ctx = new Context(context.getParentNode(), context.getParentContext(), left, right);
+		Seq right = context.rightNodes();
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			right = right.cons(nodes[i]);
+		}
+		Context ctx = context.edit(context.leftNodes(), right);
 		return new Loc<T>(node, ctx);
 	}
 	
@@ -418,11 +457,9 @@ public final class Loc<T extends IZipNode> {
 	@SuppressWarnings("unchecked")
 	public Loc<T> remove() {
 		if (!isTop()) {
-			IZipNode[] ch = new IZipNode[context.leftNodes().length +
-			                             context.rightNodes().length];
-			System.arraycopy(context.leftNodes(), 0, ch, 0, context.leftNodes().length);
-			System.arraycopy(context.rightNodes(), 0, ch, context.leftNodes().length, context.rightNodes().length);
-			return new Loc<T>(new ZipNode<T>((T)context.getParentNode()._source(), ch), context.getParentContext());
+			Seq ch = Seq.concat(context.leftNodes(), context.rightNodes());
+			return new Loc<T>(new ZipNode<T>((T)context.getParentNode()._source(), ch, node.options()), 
+					context.getParentContext());
 		}
 		throw new ZipperException("Current node is already the top node!");
 	}
@@ -435,13 +472,7 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> removeLeft() {
 		if (!isFirst()) {
-    		IZipNode[] left = new IZipNode[context.leftNodes().length - 1];
-    		System.arraycopy(context.leftNodes(), 0, left, 0, context.leftNodes().length - 1);
-			
-    		IZipNode[] right = new IZipNode[context.rightNodes().length];
-    		System.arraycopy(context.rightNodes(), 0, right, 0, context.rightNodes().length);
-			
-    		Context ctx = new Context(context.getParentNode(), context.getParentContext(), left, right);
+    		Context ctx = context.edit(context.leftNodes().init(), context.rightNodes());
     		return new Loc<T>(node, ctx);
 		}
 		throw new ZipperException("Current node is the most left node!");
@@ -455,13 +486,7 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> removeRight() {
 		if (!isLast()) {
-    		IZipNode[] left = new IZipNode[context.leftNodes().length];
-    		System.arraycopy(context.leftNodes(), 0, left, 0, context.leftNodes().length);
-			
-    		IZipNode[] right = new IZipNode[context.rightNodes().length - 1];
-    		System.arraycopy(context.rightNodes(), 1, right, 0, context.rightNodes().length - 1);
-    		
-    		Context ctx = new Context(context.getParentNode(), context.getParentContext(), left, right);
+    		Context ctx = context.edit(context.leftNodes(), context.rightNodes().rest());
     		return new Loc<T>(node, ctx);
 		}
 		throw new ZipperException("Current node is the most right node!");
@@ -474,7 +499,7 @@ public final class Loc<T extends IZipNode> {
 	 * @return new location with updated node
 	 */
 	public Loc<T> replace(IZipNode node) {
-		return new Loc<T>(toZipNode(node), context.copy());
+		return new Loc<T>(toZipNode(node), context);
 	}
 	
 	/**
@@ -487,7 +512,126 @@ public final class Loc<T extends IZipNode> {
 		if (node instanceof ZipNode<?>) {
 			throw new IllegalArgumentException("ZipNode not supported!");
 		}
-		return new Loc<T>(this.node.replaceNode(node), context.copy());
+		return new Loc<T>(this.node.replaceNode(node), context);
+	}
+	
+	// ---- Bulk transforms ----
+	
+	/**
+	 * Maps every node of this subtree, including the focus node.
+	 * A mapped node keeps the transformed children of the original
+	 * node, see <tt>replaceSource()</tt>. The subtree is visited once,
+	 * new ZipNodes are created only for mapped nodes and their
+	 * ancestors, unchanged subtrees are shared.
+	 * 
+	 * @param fn node mapping, returns the same node to keep it
+	 * @return new location with the mapped subtree
+	 */
+	public Loc<T> mapSubtree(final Function<? super T, ? extends T> fn) {
+		return transform(new Transform<T>(fn, null, null, null, node.options()), null);
+	}
+	
+	/**
+	 * Same as <tt>mapSubtree()</tt>, child subtrees are mapped in
+	 * parallel, see <tt>Zipper#parallelFold()</tt>. <tt>fn</tt> 
+	 * must be thread safe.
+	 * 
+	 * @param fn node mapping
+	 * @param pool fork/join pool
+	 * @return new location with the mapped subtree
+	 */
+	public Loc<T> mapSubtree(final Function<? super T, ? extends T> fn, final ForkJoinPool pool) {
+		if (pool == null) throw new IllegalArgumentException("Pool is null!");
+		return transform(new Transform<T>(fn, null, null, null, node.options()), pool);
+	}
+	
+	/**
+	 * Removes all nodes below the focus node not matching 
+	 * <tt>predicate</tt>, with their subtrees. The subtree 
+	 * is visited once, see <tt>mapSubtree()</tt>.
+	 * 
+	 * @param predicate nodes to keep
+	 * @return new location with the filtered subtree
+	 */
+	public Loc<T> filterChildren(final Predicate<? super T> predicate) {
+		return transform(new Transform<T>(null, predicate, null, null, node.options()), null);
+	}
+	
+	/**
+	 * Same as <tt>filterChildren()</tt>, child subtrees are filtered
+	 * in parallel. <tt>predicate</tt> must be thread safe.
+	 * 
+	 * @param predicate nodes to keep
+	 * @param pool fork/join pool
+	 * @return new location with the filtered subtree
+	 */
+	public Loc<T> filterChildren(final Predicate<? super T> predicate, final ForkJoinPool pool) {
+		if (pool == null) throw new IllegalArgumentException("Pool is null!");
+		return transform(new Transform<T>(null, predicate, null, null, node.options()), pool);
+	}
+	
+	/**
+	 * Replaces every node of this subtree matching <tt>predicate</tt>,
+	 * including the focus node, see <tt>replace()</tt>. Replaced nodes
+	 * are not visited further. The subtree is visited once, see 
+	 * <tt>mapSubtree()</tt>.
+	 * 
+	 * @param predicate nodes to replace
+	 * @param fn returns the replacement of a node
+	 * @return new location with the edited subtree
+	 * @throws IllegalArgumentException if <tt>fn</tt> returns null
+	 */
+	public Loc<T> editAll(final Predicate<? super T> predicate, final Function<? super T, ? extends T> fn) {
+		return transform(new Transform<T>(null, null, predicate, fn, node.options()), null);
+	}
+	
+	/**
+	 * Same as <tt>editAll()</tt>, child subtrees are edited in
+	 * parallel. <tt>predicate</tt> and <tt>fn</tt> must be thread safe.
+	 * 
+	 * @param predicate nodes to replace
+	 * @param fn returns the replacement of a node
+	 * @param pool fork/join pool
+	 * @return new location with the edited subtree
+	 */
+	public Loc<T> editAll(final Predicate<? super T> predicate, final Function<? super T, ? extends T> fn,
+			final ForkJoinPool pool) {
+		if (pool == null) throw new IllegalArgumentException("Pool is null!");
+		return transform(new Transform<T>(null, null, predicate, fn, node.options()), pool);
+	}
+	
+	/**
+	 * Selects the nodes below this location matching
+	 * <tt>selector</tt>, see <tt>Selector</tt>.
+	 *
+	 * @param selector compiled selector
+	 * @return lazy stream of the selected locations
+	 */
+	public Stream<Loc<T>> select(final Selector<T> selector) {
+		if (selector == null) throw new IllegalArgumentException("Selector is null!");
+		return selector.select(this);
+	}
+	
+	/**
+	 * Runs a transform on the focus node, sequential if
+	 * <tt>pool</tt> is null.
+	 */
+	private Loc<T> transform(final Transform<T> transform, final ForkJoinPool pool) {
+		IZipNode r = (pool == null)? transform.transform(node, true)
+				: pool.invoke(transform.task(node, Zipper.DEFAULT_PARALLEL_THRESHOLD));
+		return (r == node)? this : new Loc<T>(toZipNode(r), context);
+	}
+	
+	/**
+	 * Creates a transient location for batch edits.
+	 * Edits on the transient location update arrays in place
+	 * instead of allocating a new location for every change.
+	 * See <tt>TransientLoc</tt> for details.
+	 * 
+	 * @return a new transient location for the current node
+	 */
+	public TransientLoc<T> asTransient() {
+		return new TransientLoc<T>(this);
 	}
 	
 	// ---- Path ----
@@ -501,29 +645,36 @@ public final class Loc<T extends IZipNode> {
 	
 	/**
 	 * Calculates the path from root node to the current location.
+	 * The path is computed from the context chain in O(length 
+	 * of the path), a node at child index <tt>i</tt> takes one 
+	 * <tt>DOWN</tt> and <tt>i</tt> <tt>RIGHT</tt> steps.
+	 * Use <tt>indexPath()</tt> for a compact path.
 	 * 
 	 * @return Path array for the current location.
 	 */
-	// TODO: it's not the most optimal path. Improve this.
 	public Path[] path() {
-		LinkedList<Path> path = new LinkedList<Path>();
-		Loc<T> l = this;
-		while (!l.isTop()) {
-			if (!l.isFirst()) {
-				path.addFirst(Path.RIGHT);
-				l = l.left();
-			} else {
-				path.addFirst(Path.DOWN);
-				l = l.up();
+		int[] indexes = indexPath();
+		int length = indexes.length;
+		for (int i : indexes) {
+			length += i;
+		}
+		Path[] path = new Path[length];
+		int pos = 0;
+		for (int i : indexes) {
+			path[pos++] = Path.DOWN;
+			for (int k = 0; k < i; k++) {
+				path[pos++] = Path.RIGHT;
 			}
 		}
-		return path.toArray(new Path[path.size()]);
+		return path;
 	}
 	
 	/**
 	 * Traverses Zipper data structure in the order
 	 * of path elements and returns the resulting
-	 * location.
+	 * location. A <tt>DOWN</tt> step followed by
+	 * <tt>RIGHT</tt> steps moves down to the child
+	 * index directly.
 	 * 
 	 * @param path array
 	 * @return resulting location
@@ -531,9 +682,16 @@ public final class Loc<T extends IZipNode> {
 	 */
 	public Loc<T> location(final Path... path) {
 		Loc<T> l = this.root();
-		for (Path p : path) {
-			switch (p) {
-			case DOWN:       l = l.down(); break;
+		for (int i = 0; i < path.length; i++) {
+			switch (path[i]) {
+			case DOWN:
+				int index = 0;
+				while (i + 1 < path.length && path[i + 1] == Path.RIGHT) {
+					index++;
+					i++;
+				}
+				l = l.down(index); 
+				break;
 			case LEFT:       l = l.left(); break;
 			case RIGHT:      l = l.right(); break;
 			case UP:         l = l.up(); break;
@@ -545,24 +703,134 @@ public final class Loc<T extends IZipNode> {
 		return l;
 	}
 	
-
 	/**
+	 * The child indexes from the root node to the current
+	 * location, read from the context chain in O(depth).
+	 * 
+	 * @return child index path, empty for the root location
+	 */
+	public int[] indexPath() {
+		int depth = context.depth();
+		int[] path = new int[depth];
+		for (Context c = context; !c.isTop(); c = c.getParentContext()) {
+			path[--depth] = c.leftNodes().size();
+		}
+		return path;
+	}
+	
+	/**
+	 * Moves down from the root node following the child
+	 * <tt>indexes</tt>, see <tt>indexPath()</tt>.
+	 * 
+	 * @param indexes child index path
+	 * @return resulting location
+	 * @throws ZipperException in case of an invalid path
+	 */
+	public Loc<T> locate(final int... indexes) {
+		Loc<T> l = this.root();
+		for (int i : indexes) {
+			l = l.down(i);
+		}
+		return l;
+	}
+	
+	/**
+	 * Same as <tt>locate(int...)</tt> for a compact path.
+	 * 
+	 * @param path index path
+	 * @return resulting location
+	 * @throws ZipperException in case of an invalid path
+	 */
+	public Loc<T> locate(final IndexPath path) {
+		return locate(path.toArray());
+	}
+	
+	/**
+	 * @return depth of this location, 0 for the root node
+	 */
+	public int depth() {
+		return context.depth();
+	}
+	
+	/**
+	 * Compares the subtree of this location with the subtree
+	 * of <tt>other</tt>. Unchanged subtrees of the same source
+	 * nodes are equal, other subtrees are compared by their
+	 * cached subtree hashes, see <tt>ZipNode.subtreeHash()</tt>.
+	 * Different subtrees with colliding 64 bit hashes are 
+	 * reported equal.
+	 * 
+	 * @param other location to compare with
+	 * @return true if both subtrees are equal
+	 * @throws ZipperException if the zipper options have no hasher
+	 */
+	public boolean subtreeEquals(final Loc<?> other) {
+		ZipNode<?> o = other.node();
+		if (node == o || (node._source() == o._source() && !node.isModified() && !o.isModified())) {
+			return true;
+		}
+		return node.subtreeHash() == o.subtreeHash();
+	}
+	
+	/**
+	 * A lazy view of all ZipNodes at the direct path from root
+	 * to this location node, read from the context chain. The
+	 * tree is not rebuilt, ancestors are the nodes as they were
+	 * when this location was reached, edits to this location or 
+	 * its siblings are visible only after moving <tt>up()</tt>.
+	 * 
 	 * @return all ZipNodes at the direct path from root
 	 * to this location node.
 	 */
 	public Collection<ZipNode<T>> nodePath() {
-		List<ZipNode<T>> path = new ArrayList<ZipNode<T>>();
-		Loc<T> l = this;
-		while (!l.isTop()) {
-			path.add(0, l.node());
-			l = l.up();
-		}
-		path.add(0, l.node());
-		return Collections.unmodifiableList(path);
+		return new NodePath<T>(node, context);
 	}
 	
 	// ---- Helper functions ----
 	
+	/**
+	 * Read-only ancestor view of <tt>nodePath()</tt>, the 
+	 * nodes are collected from the context chain on first
+	 * access.
+	 */
+	private static final class NodePath<T extends IZipNode> extends AbstractList<ZipNode<T>> implements RandomAccess {
+		
+		private final ZipNode<T> node;
+		
+		private final Context context;
+		
+		// Path nodes from root, null until first access
+		private ZipNode<?>[] nodes;
+		
+		protected NodePath(final ZipNode<T> node, final Context context) {
+			super();
+			this.node = node;
+			this.context = context;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public ZipNode<T> get(final int index) {
+			ZipNode<?>[] n = nodes;
+			if (n == null) {
+				n = new ZipNode<?>[context.depth() + 1];
+				n[n.length - 1] = node;
+				int i = n.length - 1;
+				for (Context c = context; !c.isTop(); c = c.getParentContext()) {
+					n[--i] = c.getParentNode();
+				}
+				nodes = n;
+			}
+			return (ZipNode<T>)n[index];
+		}
+		
+		@Override
+		public int size() {
+			return context.depth() + 1;
+		}
+		
+	}
+	
 	/**
 	 * ZipNode constructor helper
 	 * 
@@ -570,13 +838,8 @@ public final class Loc<T extends IZipNode> {
 	 * @return same node if <tt>node</tt> is a ZipNode already,
 	 * a new ZipNode wrapper otherwise
 	 */
-	@SuppressWarnings("unchecked")
 	private ZipNode<T> toZipNode(final IZipNode node) {
-		if (node instanceof ZipNode<?>) {
-			return (ZipNode<T>) node;
-		} else {
-			return new ZipNode<T>((T)node);
-		}
+		return this.node.wrap(node);
 	}
 	
 }
@@ -0,0 +1,174 @@
+package com.mu.zipper;
+
+import static com.mu.zipper.LocWriter.BUFFER_SIZE;
+import static com.mu.zipper.LocWriter.FOCUS;
+import static com.mu.zipper.LocWriter.MAGIC;
+import static com.mu.zipper.LocWriter.NODE;
+import static com.mu.zipper.LocWriter.REF;
+import static com.mu.zipper.LocWriter.VERSION;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads location snapshots written by <tt>LocWriter</tt>.
+ * The nodes are re-created by the payload codec, subtrees
+ * shared in the written tree are decoded once and shared
+ * in the restored tree. A reader is not thread safe.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public final class LocReader<T extends IZipNode> {
+
+	private final ReadableByteChannel channel;
+
+	private final INodeCodec<T> codec;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * @param channel source channel, not closed by the reader
+	 * @param codec payload codec
+	 */
+	public LocReader(final ReadableByteChannel channel, final INodeCodec<T> codec) {
+		super();
+		if (channel == null) throw new IllegalArgumentException("Channel is null!");
+		if (codec == null) throw new IllegalArgumentException("Codec is null!");
+		this.channel = channel;
+		this.codec = codec;
+		buffer.limit(0);
+	}
+
+	/**
+	 * Reads the next snapshot and zips the restored tree.
+	 *
+	 * @return the location of the written focus
+	 * @throws IOException if the channel fails or the snapshot is invalid
+	 */
+	public Loc<T> read() throws IOException {
+		require(4);
+		if (buffer.getInt() != MAGIC || getVarint() != VERSION) {
+			throw new IOException("Invalid snapshot!");
+		}
+
+		// Decoded nodes by id and the post-order stack
+		List<T> nodes = new ArrayList<T>();
+		List<T> stack = new ArrayList<T>();
+		for (int tag = getByte(); tag != FOCUS; tag = getByte()) {
+			if (tag == NODE) {
+				int count = getCount() - 1;
+				byte[] payload = getBytes(getCount());
+				if (count > stack.size()) {
+					throw new IOException("Corrupt snapshot!");
+				}
+				List<T> children = null;
+				if (count >= 0) {
+					List<T> top = stack.subList(stack.size() - count, stack.size());
+					children = new ArrayList<T>(top);
+					top.clear();
+				}
+				T node = codec.decode(payload, children);
+				nodes.add(node);
+				stack.add(node);
+			} else if (tag == REF) {
+				int id = getCount();
+				if (id >= nodes.size()) {
+					throw new IOException("Corrupt snapshot!");
+				}
+				stack.add(nodes.get(id));
+			} else {
+				throw new IOException("Corrupt snapshot!");
+			}
+		}
+		if (stack.size() != 1) {
+			throw new IOException("Corrupt snapshot!");
+		}
+
+		// The depth of the focus is less than the number of nodes
+		int depth = getCount();
+		if (depth >= nodes.size()) {
+			throw new IOException("Corrupt snapshot!");
+		}
+		int[] path = new int[depth];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = getCount();
+		}
+		try {
+			return Zipper.zip(stack.get(0)).locate(path);
+		} catch (ZipperException e) {
+			throw new IOException("Corrupt snapshot!", e);
+		}
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * Reads from the channel until <tt>n</tt> bytes are buffered.
+	 */
+	private void require(final int n) throws IOException {
+		if (buffer.remaining() >= n) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < n) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of snapshot!");
+			}
+		}
+		buffer.flip();
+	}
+
+	private int getByte() throws IOException {
+		require(1);
+		return buffer.get() & 0xFF;
+	}
+
+	private int getVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = getByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt snapshot!");
+	}
+
+	/**
+	 * @return a non-negative varint, a count, id or index
+	 */
+	private int getCount() throws IOException {
+		int value = getVarint();
+		if (value < 0) {
+			throw new IOException("Corrupt snapshot!");
+		}
+		return value;
+	}
+
+	/**
+	 * Reads <tt>length</tt> bytes. The array grows with the
+	 * read input, a corrupt length fails at the end of the
+	 * input and does not allocate <tt>length</tt> bytes upfront.
+	 */
+	private byte[] getBytes(final int length) throws IOException {
+		byte[] bytes = new byte[Math.min(length, BUFFER_SIZE)];
+		for (int i = 0; i < length; ) {
+			require(1);
+			if (i == bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int)Math.min(length, 2L * bytes.length));
+			}
+			int n = Math.min(bytes.length - i, buffer.remaining());
+			buffer.get(bytes, i, n);
+			i += n;
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.mu.zipper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * Writes binary snapshots of locations, the tree including all
+ * edits and the focus, see <tt>LocReader</tt>. Subtrees shared by
+ * reference are written once. The tree is written in post-order,
+ * every node as its payload and number of children, or as a
+ * reference to a node written before:
+ * <pre>
+ *   snapshot - magic "ZLC1", version, records, FOCUS, depth, child indexes
+ *   record   - NODE, children count + 1 (0 for leaf nodes), payload length, payload
+ *            | REF, id of a written node
+ * </pre>
+ * Numbers after the magic are unsigned varints. Nodes are
+ * numbered in the order of their NODE records. A writer is
+ * not thread safe.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public final class LocWriter<T extends IZipNode> {
+
+	// Snapshot magic "ZLC1" and version
+	protected static final int MAGIC = 0x5A4C4331;
+	protected static final int VERSION = 1;
+
+	// Record tags
+	protected static final int NODE = 0;
+	protected static final int REF = 1;
+	protected static final int FOCUS = 2;
+
+	// Size of the I/O buffer
+	protected static final int BUFFER_SIZE = 1 << 16;
+
+	private final WritableByteChannel channel;
+
+	private final INodeCodec<T> codec;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * @param channel target channel, not closed by the writer
+	 * @param codec payload codec
+	 */
+	public LocWriter(final WritableByteChannel channel, final INodeCodec<T> codec) {
+		super();
+		if (channel == null) throw new IllegalArgumentException("Channel is null!");
+		if (codec == null) throw new IllegalArgumentException("Codec is null!");
+		this.channel = channel;
+		this.codec = codec;
+	}
+
+	/**
+	 * Writes a snapshot of <tt>location</tt>, the whole tree
+	 * and the path to the focus node. The tree depth is not
+	 * limited by the thread stack size.
+	 *
+	 * @param location the location to write
+	 * @throws IOException if the channel fails
+	 */
+	public void write(final Loc<T> location) throws IOException {
+		buffer.putInt(MAGIC);
+		putVarint(VERSION);
+
+		IdentityHashMap<IZipNode, Integer> ids = new IdentityHashMap<IZipNode, Integer>();
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		visit(location.root().node(), ids, stack);
+		while (!stack.isEmpty()) {
+			Frame f = stack.peek();
+			if (f.next < f.size) {
+				visit(Children.get(f.children, f.next++), ids, stack);
+			} else {
+				stack.pop();
+				node(f.node, f.size, ids);
+			}
+		}
+
+		int[] path = location.indexPath();
+		putByte(FOCUS);
+		putVarint(path.length);
+		for (int i : path) {
+			putVarint(i);
+		}
+		flush();
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * Writes a reference or leaf node, or pushes a node
+	 * with children.
+	 */
+	private void visit(final IZipNode node, final IdentityHashMap<IZipNode, Integer> ids,
+			final ArrayDeque<Frame> stack) throws IOException {
+		Integer id = ids.get(key(node));
+		if (id != null) {
+			putByte(REF);
+			putVarint(id);
+			return;
+		}
+		Object children = Children.of(node);
+		if (Children.size(children) == 0) {
+			node(node, (children == null)? -1 : 0, ids);
+		} else {
+			stack.push(new Frame(node, children));
+		}
+	}
+
+	/**
+	 * Writes a NODE record, the children are written already.
+	 */
+	private void node(final IZipNode node, final int count, final IdentityHashMap<IZipNode, Integer> ids) throws IOException {
+		ids.put(key(node), ids.size());
+		byte[] payload = codec.encode(Children.<T>source(node));
+		putByte(NODE);
+		putVarint(count + 1);
+		putVarint(payload.length);
+		for (int i = 0; i < payload.length; ) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(payload.length - i, buffer.remaining());
+			buffer.put(payload, i, n);
+			i += n;
+		}
+	}
+
+	/**
+	 * Unchanged ZipNodes share the key of their source node.
+	 */
+	private static IZipNode key(final IZipNode node) {
+		if (node instanceof ZipNode<?> && !((ZipNode<?>)node).isModified()) {
+			return ((ZipNode<?>)node)._source();
+		}
+		return node;
+	}
+
+	private void putByte(final int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put((byte)b);
+	}
+
+	private void putVarint(final int value) throws IOException {
+		if (buffer.remaining() < 5) {
+			flush();
+		}
+		int v = value;
+		while ((v & ~0x7F) != 0) {
+			buffer.put((byte)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte)v);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * A node on the post-order stack.
+	 */
+	private static final class Frame {
+
+		private final IZipNode node;
+
+		private final Object children;
+
+		private final int size;
+
+		private int next = 0;
+
+		private Frame(final IZipNode node, final Object children) {
+			super();
+			this.node = node;
+			this.children = children;
+			this.size = Children.size(children);
+		}
+
+	}
+
+}
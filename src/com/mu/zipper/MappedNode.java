@@ -0,0 +1,148 @@
+package com.mu.zipper;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A node of a memory-mapped <tt>TreeStore</tt>, or a new in-heap
+ * node added to a zipped store tree, see <tt>leaf()</tt> and
+ * <tt>node()</tt>. Mapped nodes are decoded lazily, a node reads
+ * its record and payload from the mapped file on access.
+ * Mapped nodes are read-only, edits are kept by the zipper
+ * and written using <tt>TreeStore.write()</tt>.
+ *
+ * @author Adam Smyczek
+ */
+public final class MappedNode implements IIndexedZipNode {
+
+	// Store of a mapped node, null for in-heap nodes
+	private final TreeStore store;
+
+	// Node id of a mapped node
+	private final int id;
+
+	// Payload of an in-heap node
+	private final byte[] payload;
+
+	// Children of an in-heap node, null for leaf nodes
+	private final List<MappedNode> children;
+
+	protected MappedNode(final TreeStore store, final int id) {
+		super();
+		this.store = store;
+		this.id = id;
+		this.payload = null;
+		this.children = null;
+	}
+
+	private MappedNode(final byte[] payload, final boolean leaf) {
+		super();
+		this.store = null;
+		this.id = -1;
+		this.payload = payload.clone();
+		this.children = (leaf)? null : new ArrayList<MappedNode>();
+	}
+
+	/**
+	 * @param payload node payload
+	 * @return new in-heap leaf node
+	 */
+	public static MappedNode leaf(final byte[] payload) {
+		return new MappedNode(payload, true);
+	}
+
+	/**
+	 * @param payload node payload
+	 * @return new in-heap node without children
+	 */
+	public static MappedNode node(final byte[] payload) {
+		return new MappedNode(payload, false);
+	}
+
+	/**
+	 * @return true if this node is read from a mapped file
+	 */
+	public boolean isMapped() {
+		return store != null;
+	}
+
+	/**
+	 * @return a copy of the node payload
+	 */
+	public byte[] payload() {
+		return (store != null)? store.payload(id) : payload.clone();
+	}
+
+	public int childCount() {
+		if (store != null) {
+			return store.childCount(id);
+		}
+		return (children == null)? -1 : children.size();
+	}
+
+	public IZipNode childAt(final int index) {
+		if (store != null) {
+			return new MappedNode(store, store.firstChild(id) + index);
+		}
+		return children.get(index);
+	}
+
+	/**
+	 * Read-only view of the children of a mapped node, or the
+	 * children of an in-heap node.
+	 */
+	public List<MappedNode> getChildren() {
+		if (store == null) {
+			return children;
+		}
+		final int count = store.childCount(id);
+		if (count < 0) {
+			return null;
+		}
+		return new ChildrenList(count);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj instanceof MappedNode) {
+			MappedNode n = (MappedNode)obj;
+			return (store != null)? n.store == store && n.id == id : n == this;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return (store != null)? System.identityHashCode(store) * 31 + id : System.identityHashCode(this);
+	}
+
+	/**
+	 * Read-only children view of a mapped node.
+	 */
+	private final class ChildrenList extends AbstractList<MappedNode> implements RandomAccess {
+
+		private final int count;
+
+		private ChildrenList(final int count) {
+			super();
+			this.count = count;
+		}
+
+		@Override
+		public MappedNode get(final int index) {
+			if (index < 0 || index >= count) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return (MappedNode)childAt(index);
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+
+	}
+
+}
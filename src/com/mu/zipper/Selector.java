@@ -0,0 +1,330 @@
+package com.mu.zipper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A compiled node selector, a path of steps in the spirit
+ * of XPath:
+ * <pre>
+ *   selector - step+
+ *   step     - ('/' | '//') test ('[' filter ']')*
+ *   test     - '*' | name
+ *   filter   - index | name
+ * </pre>
+ * <tt>/</tt> selects the children, <tt>//</tt> all descendants
+ * of the nodes selected by the previous step, the first step
+ * starts at the focus node. <tt>*</tt> matches any node, a name
+ * refers to a named predicate on the source node, given on
+ * <tt>compile()</tt>. An index filter matches the n-th child of
+ * its parent, negative indexes count from the last child:
+ * <pre>
+ *   //*[dir]/*[-1] - last child of every node matching "dir"
+ *   /*[0]//leaf    - all "leaf" nodes below the first child
+ * </pre>
+ * A selector is compiled into a step plan and evaluated in a
+ * single depth-first walk, every node tracks the steps it can
+ * match. Subtrees below nodes without pending steps are pruned.
+ * Selectors are immutable and can be reused for any tree.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public final class Selector<T extends IZipNode> {
+
+	// Max number of steps, pending steps are a bit mask
+	private static final int MAX_STEPS = 64;
+
+	// No index filter
+	private static final int NO_INDEX = Integer.MIN_VALUE;
+
+	private final String selector;
+
+	private final Step<T>[] steps;
+
+	// Mask of the descendant steps
+	private final long descendants;
+
+	private Selector(final String selector, final Step<T>[] steps) {
+		super();
+		this.selector = selector;
+		this.steps = steps;
+		long d = 0;
+		for (int i = 0; i < steps.length; i++) {
+			if (steps[i].descendant) {
+				d |= 1L << i;
+			}
+		}
+		this.descendants = d;
+	}
+
+	/**
+	 * Compiles a selector without named predicates.
+	 *
+	 * @see #compile(String, Map)
+	 */
+	public static <T extends IZipNode> Selector<T> compile(final String selector) {
+		return compile(selector, Collections.<String, Predicate<? super T>>emptyMap());
+	}
+
+	/**
+	 * Compiles <tt>selector</tt>.
+	 *
+	 * @param <T> concrete IZipNode type
+	 * @param selector the selector
+	 * @param predicates named predicates used by the selector
+	 * @return compiled selector
+	 * @throws IllegalArgumentException for an invalid selector
+	 *         or an unknown predicate name
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends IZipNode> Selector<T> compile(final String selector,
+			final Map<String, ? extends Predicate<? super T>> predicates) {
+		if (selector == null) throw new IllegalArgumentException("Selector is null!");
+		List<Step<T>> steps = new ArrayList<Step<T>>();
+		int i = 0;
+		int n = selector.length();
+		while (i < n) {
+			if (selector.charAt(i) != '/') {
+				throw invalid(selector, i);
+			}
+			boolean descendant = i + 1 < n && selector.charAt(i + 1) == '/';
+			i += (descendant)? 2 : 1;
+
+			// Test
+			Predicate<? super T> test = null;
+			if (i < n && selector.charAt(i) == '*') {
+				i++;
+			} else {
+				int end = name(selector, i);
+				test = predicate(selector, i, end, predicates);
+				i = end;
+			}
+
+			// Filters
+			int index = NO_INDEX;
+			while (i < n && selector.charAt(i) == '[') {
+				int start = ++i;
+				int end = selector.indexOf(']', start);
+				if (end < 0) {
+					throw invalid(selector, start);
+				}
+				String f = selector.substring(start, end);
+				if (f.matches("-?[0-9]+")) {
+					if (index != NO_INDEX) {
+						throw new IllegalArgumentException("Duplicate index in selector \"" + selector + "\" at " + start + "!");
+					}
+					try {
+						index = Integer.parseInt(f);
+					} catch (NumberFormatException e) {
+						throw invalid(selector, start);
+					}
+				} else if (name(selector, start) == end) {
+					Predicate<? super T> p = predicate(selector, start, end, predicates);
+					test = (test == null)? p : and(test, p);
+				} else {
+					throw invalid(selector, start);
+				}
+				i = end + 1;
+			}
+			steps.add(new Step<T>(descendant, test, index));
+		}
+		if (steps.isEmpty()) {
+			throw new IllegalArgumentException("Empty selector!");
+		}
+		if (steps.size() > MAX_STEPS) {
+			throw new IllegalArgumentException("Too many selector steps!");
+		}
+		return new Selector<T>(selector, steps.toArray((Step<T>[])new Step<?>[steps.size()]));
+	}
+
+	/**
+	 * Selects the nodes below <tt>location</tt> matching this
+	 * selector, lazily and in depth-first order. Every node is
+	 * returned once.
+	 *
+	 * @param location the start location
+	 * @return stream of the selected locations
+	 */
+	public Stream<Loc<T>> select(final Loc<T> location) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Matches(location),
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	@Override
+	public String toString() {
+		return selector;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @return end of the name starting at <tt>start</tt>
+	 */
+	private static int name(final String selector, final int start) {
+		int end = start;
+		while (end < selector.length() && (Character.isLetterOrDigit(selector.charAt(end))
+				|| selector.charAt(end) == '_' || selector.charAt(end) == '-')) {
+			end++;
+		}
+		if (end == start) {
+			throw invalid(selector, start);
+		}
+		return end;
+	}
+
+	private static <T extends IZipNode> Predicate<? super T> predicate(final String selector, final int start, final int end,
+			final Map<String, ? extends Predicate<? super T>> predicates) {
+		String name = selector.substring(start, end);
+		Predicate<? super T> p = predicates.get(name);
+		if (p == null) {
+			throw new IllegalArgumentException("Unknown predicate \"" + name + "\" in selector!");
+		}
+		return p;
+	}
+
+	private static <T extends IZipNode> Predicate<T> and(final Predicate<? super T> a, final Predicate<? super T> b) {
+		return new Predicate<T>() {
+			public boolean test(final T node) {
+				return a.test(node) && b.test(node);
+			}
+		};
+	}
+
+	private static IllegalArgumentException invalid(final String selector, final int position) {
+		return new IllegalArgumentException("Invalid selector \"" + selector + "\" at " + position + "!");
+	}
+
+	/**
+	 * A compiled selector step.
+	 */
+	private static final class Step<T extends IZipNode> {
+
+		private final boolean descendant;
+
+		// Node predicate or null
+		private final Predicate<? super T> test;
+
+		// Child index or NO_INDEX
+		private final int index;
+
+		private Step(final boolean descendant, final Predicate<? super T> test, final int index) {
+			super();
+			this.descendant = descendant;
+			this.test = test;
+			this.index = index;
+		}
+
+		/**
+		 * @return true if the child <tt>index</tt> of <tt>count</tt>
+		 *         children <tt>node</tt> matches this step
+		 */
+		private boolean matches(final Loc<T> node, final int index, final int count) {
+			if (this.index != NO_INDEX && index != ((this.index < 0)? count + this.index : this.index)) {
+				return false;
+			}
+			return test == null || test.test(node._source());
+		}
+
+	}
+
+	/**
+	 * Depth-first evaluation of the steps. Every frame holds a
+	 * location and the steps pending for its children, a child
+	 * matching a step continues with the next step, descendant
+	 * steps stay pending for all nodes below.
+	 */
+	private final class Matches implements Iterator<Loc<T>> {
+
+		private final ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+
+		private Loc<T> next;
+
+		private Matches(final Loc<T> location) {
+			super();
+			push(location, 1L);
+		}
+
+		public boolean hasNext() {
+			while (next == null && !stack.isEmpty()) {
+				Frame f = stack.peek();
+				if (f.next == f.count) {
+					stack.pop();
+					continue;
+				}
+				int index = f.next++;
+				Loc<T> child = f.loc.down(index);
+				long matched = 0;
+				for (long p = f.pending; p != 0; p &= p - 1) {
+					int s = Long.numberOfTrailingZeros(p);
+					if (steps[s].matches(child, index, f.count)) {
+						matched |= 1L << s;
+					}
+				}
+				if ((matched & (1L << (steps.length - 1))) != 0) {
+					next = child;
+				}
+				push(child, (matched << 1) | (f.pending & descendants));
+			}
+			return next != null;
+		}
+
+		public Loc<T> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Loc<T> n = next;
+			next = null;
+			return n;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Pushes <tt>loc</tt> if steps are pending for its children.
+		 */
+		private void push(final Loc<T> loc, final long pending) {
+			long p = pending & ((steps.length == MAX_STEPS)? -1L : (1L << steps.length) - 1);
+			if (p != 0 && loc.hasChildren()) {
+				stack.push(new Frame(loc, p));
+			}
+		}
+
+	}
+
+	/**
+	 * A location and the steps pending for its children.
+	 */
+	private final class Frame {
+
+		private final Loc<T> loc;
+
+		private final long pending;
+
+		private final int count;
+
+		private int next = 0;
+
+		private Frame(final Loc<T> loc, final long pending) {
+			super();
+			this.loc = loc;
+			this.pending = pending;
+			this.count = loc.node().children().size();
+		}
+
+	}
+
+}
@@ -0,0 +1,390 @@
+package com.mu.zipper;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Internal persistent sequence of children or sibling nodes.
+ * A sequence is either a slice of a shared node array,
+ * a chain of cells added to the front (<tt>cons()</tt>) or
+ * the back (<tt>snoc()</tt>) of another sequence,
+ * a <tt>TreeSeq</tt> for zippers using tree storage, or
+ * an <tt>IndexedSeq</tt> for <tt>IIndexedZipNode</tt> children.
+ * Adding or removing a node at the matching end allocates
+ * a constant amount of memory, the underlying arrays are
+ * shared and never modified.
+ *
+ * The left siblings of a location are kept with
+ * the nearest sibling at the back, right siblings
+ * with the nearest sibling at the front, like
+ * the reversed and the plain list of the original
+ * Huet zipper.
+ *
+ * @author Adam Smyczek
+ */
+abstract class Seq implements Iterable<IZipNode> {
+
+	// The empty sequence
+	protected static final Seq EMPTY = new Slice(new IZipNode[0], 0, 0);
+
+	// Number of nodes in this sequence
+	private final int size;
+
+	protected Seq(final int size) {
+		super();
+		this.size = size;
+	}
+
+	/**
+	 * Creates a sequence sharing the range
+	 * <tt>from</tt> (inclusive) to <tt>to</tt>
+	 * (exclusive) of the <tt>nodes</tt> array.
+	 * The array must not be modified afterwards.
+	 *
+	 * @param nodes array
+	 * @param from index
+	 * @param to index
+	 * @return sequence view of the array range
+	 */
+	protected static Seq of(final IZipNode[] nodes, final int from, final int to) {
+		return (from == to)? EMPTY : new Slice(nodes, from, to);
+	}
+
+	/**
+	 * @return a new empty sequence instance, used as a marker
+	 */
+	protected static Seq marker() {
+		return new Slice(new IZipNode[0], 0, 0);
+	}
+
+	/**
+	 * Joins <tt>left</tt>, <tt>node</tt> and <tt>right</tt>
+	 * into one sequence. Tree sequences are joined in O(log n),
+	 * adjacent windows of indexed sequences without fetching
+	 * children, all other sequences are copied into a new array.
+	 *
+	 * @param left sequence
+	 * @param node middle node
+	 * @param right sequence
+	 * @return joined sequence
+	 */
+	protected static Seq join(final Seq left, final IZipNode node, final Seq right) {
+		if (left instanceof TreeSeq && right instanceof TreeSeq) {
+			return TreeSeq.join((TreeSeq)left, node, (TreeSeq)right);
+		}
+		if (left instanceof IndexedSeq && right instanceof IndexedSeq) {
+			Seq s = IndexedSeq.join((IndexedSeq)left, node, (IndexedSeq)right);
+			if (s != null) {
+				return s;
+			}
+		}
+		IZipNode[] a = new IZipNode[left.size() + right.size() + 1];
+		left.copyTo(a, 0);
+		a[left.size()] = node;
+		right.copyTo(a, left.size() + 1);
+		return of(a, 0, a.length);
+	}
+
+	/**
+	 * Concatenates <tt>left</tt> and <tt>right</tt>,
+	 * see <tt>join()</tt>.
+	 *
+	 * @param left sequence
+	 * @param right sequence
+	 * @return concatenated sequence
+	 */
+	protected static Seq concat(final Seq left, final Seq right) {
+		if (left instanceof TreeSeq && right instanceof TreeSeq) {
+			return TreeSeq.concat((TreeSeq)left, (TreeSeq)right);
+		}
+		IZipNode[] a = new IZipNode[left.size() + right.size()];
+		left.copyTo(a, 0);
+		right.copyTo(a, left.size());
+		return of(a, 0, a.length);
+	}
+
+	/**
+	 * @return number of nodes in this sequence
+	 */
+	protected final int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if this sequence is empty
+	 */
+	protected final boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index of the node
+	 * @return node at position <tt>index</tt>
+	 */
+	protected abstract IZipNode get(int index);
+
+	/**
+	 * @param from index (inclusive)
+	 * @param to index (exclusive)
+	 * @return sub sequence sharing the nodes of this sequence
+	 */
+	protected abstract Seq slice(int from, int to);
+
+	/**
+	 * @return the first node
+	 */
+	protected abstract IZipNode first();
+
+	/**
+	 * @return this sequence without the first node
+	 */
+	protected abstract Seq rest();
+
+	/**
+	 * @return the last node
+	 */
+	protected abstract IZipNode last();
+
+	/**
+	 * @return this sequence without the last node
+	 */
+	protected abstract Seq init();
+
+	/**
+	 * @param node to add
+	 * @return new sequence with <tt>node</tt> in front
+	 */
+	protected Seq cons(final IZipNode node) {
+		return new Cons(node, this);
+	}
+
+	/**
+	 * @param node to add
+	 * @return new sequence with <tt>node</tt> at the back
+	 */
+	protected Seq snoc(final IZipNode node) {
+		return new Snoc(this, node);
+	}
+
+	/**
+	 * Copies all nodes of this sequence into <tt>dest</tt>
+	 * starting at position <tt>offset</tt>. Cells are
+	 * unwound in a loop, long cell chains are safe.
+	 *
+	 * @param dest array
+	 * @param offset in dest array
+	 */
+	protected final void copyTo(final IZipNode[] dest, final int offset) {
+		int lo = offset;
+		int hi = offset + size;
+		Seq s = this;
+		while (true) {
+			if (s instanceof Cons) {
+				dest[lo++] = ((Cons)s).head;
+				s = ((Cons)s).tail;
+			} else if (s instanceof Snoc) {
+				dest[--hi] = ((Snoc)s).last;
+				s = ((Snoc)s).init;
+			} else {
+				s.copyElements(dest, lo);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the nodes of a sequence that is not a cell.
+	 *
+	 * @param dest array
+	 * @param offset in dest array
+	 */
+	protected void copyElements(final IZipNode[] dest, final int offset) {
+		throw new IllegalStateException("Not a flat sequence!");
+	}
+
+	/**
+	 * Iterates the nodes of this sequence, cell
+	 * chains are copied into an array first.
+	 */
+	public Iterator<IZipNode> iterator() {
+		return Arrays.asList(toArray()).iterator();
+	}
+
+	/**
+	 * @return a new array containing all nodes of this sequence
+	 */
+	protected final IZipNode[] toArray() {
+		IZipNode[] a = new IZipNode[size];
+		copyTo(a, 0);
+		return a;
+	}
+
+	/**
+	 * Helper used by the cells to access the opposite
+	 * end of a chain. The chain is copied into a slice,
+	 * this happens only if a chain built at one end
+	 * is consumed from the other end.
+	 *
+	 * @return this sequence as an array slice
+	 */
+	protected final Seq flatten() {
+		return of(toArray(), 0, size);
+	}
+
+	// ---- Sequence implementations ----
+
+	/**
+	 * Range of a shared node array.
+	 */
+	private static final class Slice extends Seq {
+
+		private final IZipNode[] nodes;
+
+		private final int from;
+
+		private Slice(final IZipNode[] nodes, final int from, final int to) {
+			super(to - from);
+			this.nodes = nodes;
+			this.from = from;
+		}
+
+		@Override
+		protected IZipNode get(final int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return nodes[from + index];
+		}
+
+		@Override
+		protected Seq slice(final int from, final int to) {
+			return of(nodes, this.from + from, this.from + to);
+		}
+
+		@Override
+		protected IZipNode first() {
+			return nodes[from];
+		}
+
+		@Override
+		protected Seq rest() {
+			return of(nodes, from + 1, from + size());
+		}
+
+		@Override
+		protected IZipNode last() {
+			return nodes[from + size() - 1];
+		}
+
+		@Override
+		protected Seq init() {
+			return of(nodes, from, from + size() - 1);
+		}
+
+		@Override
+		protected void copyElements(final IZipNode[] dest, final int offset) {
+			System.arraycopy(nodes, from, dest, offset, size());
+		}
+
+		@Override
+		public Iterator<IZipNode> iterator() {
+			return Arrays.asList(nodes).subList(from, from + size()).iterator();
+		}
+
+	}
+
+	/**
+	 * A node added in front of a sequence.
+	 */
+	private static final class Cons extends Seq {
+
+		private final IZipNode head;
+
+		private final Seq tail;
+
+		private Cons(final IZipNode head, final Seq tail) {
+			super(tail.size() + 1);
+			this.head = head;
+			this.tail = tail;
+		}
+
+		@Override
+		protected IZipNode get(final int index) {
+			return (index == 0)? head : flatten().get(index);
+		}
+
+		@Override
+		protected Seq slice(final int from, final int to) {
+			return flatten().slice(from, to);
+		}
+
+		@Override
+		protected IZipNode first() {
+			return head;
+		}
+
+		@Override
+		protected Seq rest() {
+			return tail;
+		}
+
+		@Override
+		protected IZipNode last() {
+			return (tail.isEmpty())? head : flatten().last();
+		}
+
+		@Override
+		protected Seq init() {
+			return (tail.isEmpty())? tail : flatten().init();
+		}
+
+	}
+
+	/**
+	 * A node added at the back of a sequence.
+	 */
+	private static final class Snoc extends Seq {
+
+		private final Seq init;
+
+		private final IZipNode last;
+
+		private Snoc(final Seq init, final IZipNode last) {
+			super(init.size() + 1);
+			this.init = init;
+			this.last = last;
+		}
+
+		@Override
+		protected IZipNode get(final int index) {
+			return (index == size() - 1)? last : flatten().get(index);
+		}
+
+		@Override
+		protected Seq slice(final int from, final int to) {
+			return flatten().slice(from, to);
+		}
+
+		@Override
+		protected IZipNode first() {
+			return (init.isEmpty())? last : flatten().first();
+		}
+
+		@Override
+		protected Seq rest() {
+			return (init.isEmpty())? init : flatten().rest();
+		}
+
+		@Override
+		protected IZipNode last() {
+			return last;
+		}
+
+		@Override
+		protected Seq init() {
+			return init;
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.mu.zipper;
+
+import java.util.ArrayDeque;
+import java.util.function.ToLongFunction;
+
+/**
+ * Internal implementation of <tt>ZipNode#subtreeHash()</tt>.
+ * The hash of a node combines the payload hash of its source
+ * node with the hashes of its children, in children order.
+ * Hashes are cached by ZipNodes, a walk stops at ZipNodes
+ * with a cached hash. After an edit only the new ZipNodes
+ * on the path to the root are hashed.
+ *
+ * @author Adam Smyczek
+ */
+final class SubtreeHash {
+
+	// Mixing constants
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+	private static final long PRIME = 0x100000001B3L;
+
+	private SubtreeHash() {
+		super();
+	}
+
+	/**
+	 * Hashes the subtree of <tt>node</tt> with an explicit stack,
+	 * the depth of the tree is not limited by the thread stack size.
+	 *
+	 * @param node subtree root
+	 * @return hash of the subtree, never 0
+	 * @throws ZipperException if the options have no hasher
+	 */
+	protected static long hash(final ZipNode<?> node) {
+		ToLongFunction<? super IZipNode> hasher = node.options().getHasher();
+		if (hasher == null) {
+			throw new ZipperException("Zipper options without hasher!");
+		}
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(node, hasher));
+		while (true) {
+			Frame f = stack.peek();
+			long h;
+			if (f.next < f.size) {
+				IZipNode c = Children.get(f.children, f.next++);
+				h = cached(c);
+				if (h == 0) {
+					Frame cf = new Frame(c, hasher);
+					if (cf.size > 0) {
+						stack.push(cf);
+						continue;
+					}
+					h = cf.finish();
+				}
+			} else {
+				stack.pop();
+				h = f.finish();
+				if (stack.isEmpty()) {
+					return h;
+				}
+			}
+			Frame p = stack.peek();
+			p.hash = mix(p.hash, h);
+		}
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @return cached hash of <tt>node</tt>, 0 if none
+	 */
+	private static long cached(final IZipNode node) {
+		return (node instanceof ZipNode<?>)? ((ZipNode<?>)node).cachedHash() : 0;
+	}
+
+	private static long mix(final long hash, final long value) {
+		return (Long.rotateLeft(hash, 27) ^ value) * PRIME;
+	}
+
+	/**
+	 * A node on the hash stack.
+	 */
+	private static final class Frame {
+
+		private final IZipNode node;
+
+		private final Object children;
+
+		private final int size;
+
+		private long hash;
+
+		private int next = 0;
+
+		private Frame(final IZipNode node, final ToLongFunction<? super IZipNode> hasher) {
+			super();
+			this.node = node;
+			this.children = Children.of(node);
+			this.size = Children.size(children);
+			this.hash = hasher.applyAsLong(Children.<IZipNode>source(node)) * SEED;
+		}
+
+		/**
+		 * @return the hash of the node, cached by ZipNodes
+		 */
+		private long finish() {
+			long h = mix(hash, (children == null)? -1 : size);
+			// Final avalanche, 0 marks hashes not computed
+			h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+			h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+			h ^= h >>> 33;
+			if (h == 0) {
+				h = 1;
+			}
+			if (node instanceof ZipNode<?>) {
+				((ZipNode<?>)node).cacheHash(h);
+			}
+			return h;
+		}
+
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.mu.zipper;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Internal spliterator over all source nodes of a subtree
+ * in depth-first pre-order, see <tt>Loc#stream()</tt>.
+ *
+ * The pending nodes are kept as a stack of child ranges.
+ * The top range is consumed first, a range is pushed for
+ * the children of every returned node. <tt>trySplit()</tt>
+ * splits the bottom most range with at least two pending
+ * children in half, these are the largest pending subtrees.
+ * The new spliterator takes the first half and all ranges
+ * above it, this spliterator continues with the second half.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> the concrete node type
+ */
+final class SubtreeSpliterator<T extends IZipNode> implements Spliterator<T> {
+
+	// Initial stack size
+	private static final int INITIAL_DEPTH = 16;
+
+	// Children of every range, see Children
+	private Object[] children;
+
+	// Next pending child index of every range
+	private int[] next;
+
+	// End index (exclusive) of every range
+	private int[] end;
+
+	// Index of the top range, -1 if empty
+	private int top;
+
+	// Size estimate, unknown sizes are halved on every split
+	private long estimate;
+
+	/**
+	 * @param node subtree root
+	 */
+	protected SubtreeSpliterator(final IZipNode node) {
+		this(INITIAL_DEPTH, Long.MAX_VALUE);
+		push(new IZipNode[] { node }, 1);
+	}
+
+	private SubtreeSpliterator(final int depth, final long estimate) {
+		super();
+		this.children = new Object[depth];
+		this.next = new int[depth];
+		this.end = new int[depth];
+		this.top = -1;
+		this.estimate = estimate;
+	}
+
+	public boolean tryAdvance(final Consumer<? super T> action) {
+		while (top >= 0) {
+			if (next[top] < end[top]) {
+				IZipNode n = Children.get(children[top], next[top]++);
+				Object ch = Children.of(n);
+				if (Children.size(ch) > 0) {
+					push(ch, Children.size(ch));
+				}
+				action.accept(Children.<T>source(n));
+				return true;
+			}
+			children[top--] = null;
+		}
+		return false;
+	}
+
+	public Spliterator<T> trySplit() {
+		// Bottom most range with at least two pending children
+		for (int k = 0; k <= top; k++) {
+			int pending = end[k] - next[k];
+			if (pending >= 2) {
+				int mid = next[k] + pending / 2;
+				SubtreeSpliterator<T> prefix = split(k);
+				prefix.end[0] = mid;
+				next[k] = mid;
+				return prefix;
+			}
+		}
+		// Otherwise split at a range boundary, above the
+		// bottom most range with a pending child
+		int k = 0;
+		while (k < top && next[k] == end[k]) {
+			k++;
+		}
+		for (int i = k + 1; i <= top; i++) {
+			if (next[i] < end[i]) {
+				SubtreeSpliterator<T> prefix = split(k + 1);
+				next[k + 1] = end[k + 1];
+				return prefix;
+			}
+		}
+		return null;
+	}
+
+	public long estimateSize() {
+		return estimate;
+	}
+
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * Moves ranges <tt>k</tt> to top into a new spliterator,
+	 * range <tt>k</tt> is copied and remains the bottom
+	 * range of this spliterator.
+	 */
+	private SubtreeSpliterator<T> split(final int k) {
+		estimate = estimate >>> 1;
+		int size = top - k + 1;
+		SubtreeSpliterator<T> prefix = new SubtreeSpliterator<T>(Math.max(INITIAL_DEPTH, size * 2), estimate);
+		System.arraycopy(children, k, prefix.children, 0, size);
+		System.arraycopy(next, k, prefix.next, 0, size);
+		System.arraycopy(end, k, prefix.end, 0, size);
+		prefix.top = size - 1;
+		for (int i = k + 1; i <= top; i++) {
+			children[i] = null;
+		}
+		top = k;
+		return prefix;
+	}
+
+	private void push(final Object ch, final int count) {
+		top++;
+		if (top == children.length) {
+			int size = children.length * 2;
+			Object[] c = new Object[size];
+			System.arraycopy(children, 0, c, 0, top);
+			children = c;
+			int[] n = new int[size];
+			System.arraycopy(next, 0, n, 0, top);
+			next = n;
+			int[] e = new int[size];
+			System.arraycopy(end, 0, e, 0, top);
+			end = e;
+		}
+		children[top] = ch;
+		next[top] = 0;
+		end[top] = count;
+	}
+
+}
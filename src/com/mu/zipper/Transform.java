@@ -0,0 +1,244 @@
+package com.mu.zipper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Internal implementation of the bulk transforms
+ * <tt>Loc#mapSubtree()</tt>, <tt>Loc#filterChildren()</tt> and
+ * <tt>Loc#editAll()</tt>. A transform visits the subtree once
+ * and creates new ZipNodes only for changed nodes and their
+ * ancestors, every changed children sequence is built once.
+ * Unchanged subtrees are shared with the transformed subtree.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> the concrete node type
+ */
+final class Transform<T extends IZipNode> {
+
+	// Marks a removed node
+	private static final Object REMOVE = new Object();
+
+	// Node mapping or null
+	private final Function<? super T, ? extends T> map;
+
+	// Nodes to keep or null
+	private final Predicate<? super T> keep;
+
+	// Nodes to replace and the replace function, or null
+	private final Predicate<? super T> match;
+	private final Function<? super T, ? extends T> edit;
+
+	// Options of the new ZipNodes
+	private final ZipOptions options;
+
+	protected Transform(final Function<? super T, ? extends T> map, final Predicate<? super T> keep,
+			final Predicate<? super T> match, final Function<? super T, ? extends T> edit, final ZipOptions options) {
+		super();
+		this.map = map;
+		this.keep = keep;
+		this.match = match;
+		this.edit = edit;
+		this.options = options;
+	}
+
+	/**
+	 * Sequential transform with an explicit stack, the depth of
+	 * the tree is not limited by the thread stack size.
+	 *
+	 * @param node subtree root
+	 * @param top true if <tt>node</tt> is the focus node, never removed
+	 * @return transformed node, <tt>node</tt> if unchanged, null if removed
+	 */
+	protected IZipNode transform(final IZipNode node, final boolean top) {
+		Object e = enter(node, top);
+		if (e != null) {
+			return (e == REMOVE)? null : (IZipNode)e;
+		}
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(node));
+		while (true) {
+			Frame f = stack.peek();
+			if (f.next < f.results.length) {
+				IZipNode c = Children.get(f.children, f.next);
+				e = enter(c, false);
+				if (e != null) {
+					f.results[f.next++] = (e == REMOVE)? null : (IZipNode)e;
+				} else {
+					stack.push(new Frame(c));
+				}
+			} else {
+				stack.pop();
+				IZipNode r = finish(f.node, f.children, f.results);
+				if (stack.isEmpty()) {
+					return r;
+				}
+				Frame p = stack.peek();
+				p.results[p.next++] = r;
+			}
+		}
+	}
+
+	/**
+	 * @param node subtree root, the focus node
+	 * @param threshold surplus queued task threshold
+	 * @return fork/join task transforming the subtree of <tt>node</tt>
+	 */
+	protected RecursiveTask<IZipNode> task(final IZipNode node, final int threshold) {
+		return new NodeTask(node, true, threshold, 0);
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @return <tt>REMOVE</tt> for a removed node, the replacement
+	 *         of a replaced node, or null to transform the subtree
+	 */
+	private Object enter(final IZipNode node, final boolean top) {
+		T source = Children.<T>source(node);
+		if (!top && keep != null && !keep.test(source)) {
+			return REMOVE;
+		}
+		if (match != null && match.test(source)) {
+			T replacement = edit.apply(source);
+			if (replacement == null) throw new IllegalArgumentException("Node is null!");
+			return replacement;
+		}
+		return null;
+	}
+
+	/**
+	 * @param node the node
+	 * @param children children container of <tt>node</tt>
+	 * @param results transformed children, null for removed children
+	 * @return transformed node, <tt>node</tt> if unchanged
+	 */
+	private IZipNode finish(final IZipNode node, final Object children, final IZipNode[] results) {
+		T source = Children.<T>source(node);
+		T mapped = (map != null)? map.apply(source) : source;
+		int count = 0;
+		boolean same = true;
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null) {
+				count++;
+			}
+			same &= results[i] == Children.get(children, i);
+		}
+		if (same && mapped == source) {
+			return node;
+		}
+		Seq seq = null;
+		if (same && node instanceof ZipNode<?>) {
+			seq = ((ZipNode<?>)node).children();
+		} else if (children != null) {
+			IZipNode[] nodes = new IZipNode[count];
+			count = 0;
+			for (IZipNode r : results) {
+				if (r != null) {
+					nodes[count++] = r;
+				}
+			}
+			seq = options.toSeq(nodes);
+		}
+		return new ZipNode<T>(mapped, seq, options);
+	}
+
+	/**
+	 * A node on the transform stack.
+	 */
+	private static final class Frame {
+
+		private final IZipNode node;
+
+		private final Object children;
+
+		private final IZipNode[] results;
+
+		private int next = 0;
+
+		private Frame(final IZipNode node) {
+			super();
+			this.node = node;
+			this.children = Children.of(node);
+			this.results = new IZipNode[Children.size(children)];
+		}
+
+	}
+
+	/**
+	 * Transforms the subtree of a node, the children are
+	 * transformed by a <tt>RangeTask</tt>.
+	 */
+	private final class NodeTask extends RecursiveTask<IZipNode> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final IZipNode node;
+
+		private final boolean top;
+
+		private final int threshold;
+
+		// Nesting of inlined node tasks on the current thread
+		private final int depth;
+
+		protected NodeTask(final IZipNode node, final boolean top, final int threshold, final int depth) {
+			super();
+			this.node = node;
+			this.top = top;
+			this.threshold = threshold;
+			this.depth = depth;
+		}
+
+		@Override
+		protected IZipNode compute() {
+			if (depth >= ChildRangeTask.MAX_INLINE_DEPTH) {
+				return transform(node, top);
+			}
+			Object e = enter(node, top);
+			if (e != null) {
+				return (e == REMOVE)? null : (IZipNode)e;
+			}
+			Object ch = Children.of(node);
+			IZipNode[] results = new IZipNode[Children.size(ch)];
+			if (results.length > 0) {
+				new RangeTask(ch, results, 0, results.length, threshold, depth).compute();
+			}
+			return finish(node, ch, results);
+		}
+
+	}
+
+	/**
+	 * Transforms a range of children into the results array.
+	 */
+	private final class RangeTask extends ChildRangeTask {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object children;
+
+		private final IZipNode[] results;
+
+		protected RangeTask(final Object children, final IZipNode[] results, final int from, final int to, final int threshold, final int depth) {
+			super(from, to, threshold, depth);
+			this.children = children;
+			this.results = results;
+		}
+
+		@Override
+		protected ChildRangeTask range(final int from, final int to) {
+			return new RangeTask(children, results, from, to, threshold, depth);
+		}
+
+		@Override
+		protected void child(final int index) {
+			results[index] = new NodeTask(Children.get(children, index), false, threshold, depth + 1).compute();
+		}
+
+	}
+
+}
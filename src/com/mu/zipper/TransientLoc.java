@@ -0,0 +1,538 @@
+package com.mu.zipper;
+
+import java.util.Collection;
+
+/**
+ * A mutable, single-owner location for batch edits.
+ * A transient location is created by <tt>Loc#asTransient()</tt>
+ * and supports the same edit and move methods as <tt>Loc</tt>,
+ * but instead of returning a new location every edit
+ * updates the children and sibling arrays of the current
+ * level in place. Call <tt>persistent()</tt> to freeze
+ * the result back into an ordinary immutable location.
+ *
+ * Arrays are copied once, on the first edit after
+ * creation or after a move to another level. Original
+ * nodes and locations are never changed.
+ *
+ * A transient location can only be used by the thread
+ * that created it and cannot be used after
+ * <tt>persistent()</tt> was called.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> the concrete node type
+ */
+public final class TransientLoc<T extends IZipNode> {
+
+	// Initial capacity of owned arrays
+	private static final int MIN_CAPACITY = 8;
+
+	// Owner thread, null after persistent() was called
+	private Thread owner;
+
+	// The node in focus, children are stale while the children array is owned
+	private ZipNode<T> node;
+
+	// The context of this location, siblings are stale while sibling arrays are owned
+	private Context context;
+
+	// Original node at the focus position, see Context
+	private IZipNode origin;
+
+	// Owned children array, null if not edited
+	private IZipNode[] children;
+	private int childCount;
+
+	// Owned left siblings, nearest sibling is at leftCount - 1, null if not edited
+	private IZipNode[] left;
+	private int leftCount;
+
+	// Owned right siblings, nearest sibling is at rightStart, null if not edited
+	private IZipNode[] right;
+	private int rightStart;
+
+	/**
+	 * @param loc the location to edit
+	 */
+	protected TransientLoc(final Loc<T> loc) {
+		super();
+		this.owner = Thread.currentThread();
+		this.node = loc.node();
+		this.context = loc.context();
+		this.origin = context.origin();
+	}
+
+	/**
+	 * Freezes all pending edits and returns an immutable location.
+	 * This transient location cannot be used afterwards.
+	 *
+	 * @return the location for the current focus
+	 */
+	public Loc<T> persistent() {
+		checkOwner();
+		Loc<T> loc = toLoc();
+		owner = null;
+		return loc;
+	}
+
+	/**
+	 * @return the source node for this location
+	 */
+	public T _source() {
+		checkOwner();
+		return node._source();
+	}
+
+	// ---- Location predicates ----
+
+	/**
+	 * @return true if this location marks the root node
+	 */
+	public boolean isTop() {
+		checkOwner();
+		return context.isTop();
+	}
+
+	/**
+	 * @return true if this location marks the most left sibling node
+	 */
+	public boolean isFirst() {
+		checkOwner();
+		return (left != null)? leftCount == 0 : context.isFirst();
+	}
+
+	/**
+	 * @return true if this location marks the most right sibling node
+	 */
+	public boolean isLast() {
+		checkOwner();
+		return (right != null)? rightStart == right.length : context.isLast();
+	}
+
+	/**
+	 * @return if this location marks a leaf node
+	 */
+	public boolean isLeaf() {
+		checkOwner();
+		return node.isLeaf();
+	}
+
+	/**
+	 * @return if the node contains children, false
+	 * if the node is a leaf node or has no children.
+	 */
+	public boolean hasChildren() {
+		checkOwner();
+		return (children != null)? childCount > 0 : node.hasChildren();
+	}
+
+	// ---- Traversing ----
+
+	/**
+	 * Move down to the first/most left child node
+	 *
+	 * @return this location
+	 */
+	public TransientLoc<T> down() {
+		return down(0);
+	}
+
+	/**
+	 * Move down to the n-th node.
+	 *
+	 * @param index of the n-th node
+	 * @return this location
+	 * @throws ZipperException if this node is a leaf node or index out of bound
+	 */
+	public TransientLoc<T> down(final int index) {
+		checkOwner();
+		set(toLoc().down(index));
+		return this;
+	}
+
+	/**
+	 * Move up to the parent node. Owned sibling arrays
+	 * become the owned children array of the parent.
+	 *
+	 * @return this location
+	 * @throws ZipperException if this node is already a root node
+	 */
+	@SuppressWarnings("unchecked")
+	public TransientLoc<T> up() {
+		checkOwner();
+		if (left == null) {
+			set(toLoc().up());
+		} else if (!context.isTop()) {
+			freezeNode();
+			int rightCount = right.length - rightStart;
+			IZipNode[] ch = grow(left, leftCount, leftCount + 1 + rightCount);
+			ch[leftCount] = sibling();
+			System.arraycopy(right, rightStart, ch, leftCount + 1, rightCount);
+
+			node = (ZipNode<T>)context.getParentNode();
+			context = context.getParentContext();
+			origin = context.origin();
+			children = ch;
+			childCount = leftCount + 1 + rightCount;
+			left = right = null;
+		} else {
+			throw new ZipperException("Current node is already the top node!");
+		}
+		return this;
+	}
+
+	/**
+	 * Move to the next sibling node.
+	 *
+	 * @return this location
+	 * @throws ZipperException if this node is the most right sibling node already
+	 */
+	public TransientLoc<T> right() {
+		checkOwner();
+		if (left == null) {
+			set(toLoc().right());
+		} else if (rightStart < right.length) {
+			freezeNode();
+			IZipNode n = sibling();
+			left = grow(left, leftCount, leftCount + 1);
+			left[leftCount++] = n;
+			origin = right[rightStart];
+			right[rightStart++] = null;
+			node = node.wrap(origin);
+		} else {
+			throw new ZipperException("Current node is already the the most right node!");
+		}
+		return this;
+	}
+
+	/**
+	 * Move to the previous sibling node.
+	 *
+	 * @return this location
+	 * @throws ZipperException if this location is the most left sibling node already
+	 */
+	public TransientLoc<T> left() {
+		checkOwner();
+		if (left == null) {
+			set(toLoc().left());
+		} else if (leftCount > 0) {
+			freezeNode();
+			IZipNode n = sibling();
+			growRight(1);
+			right[--rightStart] = n;
+			origin = left[--leftCount];
+			left[leftCount] = null;
+			node = node.wrap(origin);
+		} else {
+			throw new ZipperException("Current node is already the the most left node!");
+		}
+		return this;
+	}
+
+	// ---- Altering Zipper tree ----
+
+	/**
+	 * Add <tt>nodes</tt> to the end of the children list.
+	 *
+	 * @param nodes to append
+	 * @return this location
+	 * @throws ZipperException if the location marks a leaf node
+	 */
+	@SafeVarargs
+	public final TransientLoc<T> add(final T... nodes) {
+		checkOwner();
+		if (!node.isLeaf()) {
+			ownChildren(nodes.length);
+			for (T n : nodes) {
+				children[childCount++] = n;
+			}
+			return this;
+		}
+		throw new ZipperException("Current node is a leaf!");
+	}
+
+	/**
+	 * Same as <tt>add(T...)</tt>.
+	 */
+	@SuppressWarnings("unchecked")
+	public TransientLoc<T> addAll(final Collection<T> nodes) {
+		return add((T[]) nodes.toArray());
+	}
+
+	/**
+	 * Remove child node at position <tt>index</tt>.
+	 *
+	 * @param index to remove
+	 * @return this location
+	 * @throws ZipperException if index out of bounds
+	 */
+	public TransientLoc<T> removeChild(final int index) {
+		checkOwner();
+		if (hasChildren()) {
+			ownChildren(0);
+			if (index >= 0 && index < childCount) {
+				System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+				children[--childCount] = null;
+				return this;
+			}
+		}
+		throw new ZipperException("Current node does not have any children or index out of bound!");
+	}
+
+	/**
+	 * Remove all children.
+	 *
+	 * @return this location
+	 * @throws ZipperException if location marks a leaf node
+	 */
+	public TransientLoc<T> clear() {
+		checkOwner();
+		if (!node.isLeaf()) {
+			children = new IZipNode[MIN_CAPACITY];
+			childCount = 0;
+			return this;
+		}
+		throw new ZipperException("Current node is a leaf!");
+	}
+
+	/**
+	 * Inserts <tt>nodes</tt> to the left of the current location node.
+	 *
+	 * @param nodes to insert
+	 * @return this location
+	 */
+	@SafeVarargs
+	public final TransientLoc<T> insertLeft(final T... nodes) {
+		checkOwner();
+		ownSiblings();
+		left = grow(left, leftCount, leftCount + nodes.length);
+		for (T n : nodes) {
+			left[leftCount++] = n;
+		}
+		return this;
+	}
+
+	/**
+	 * Inserts <tt>nodes</tt> to the right of the current location node.
+	 *
+	 * @param nodes to insert
+	 * @return this location
+	 */
+	@SafeVarargs
+	public final TransientLoc<T> insertRight(final T... nodes) {
+		checkOwner();
+		ownSiblings();
+		growRight(nodes.length);
+		rightStart -= nodes.length;
+		for (int i = 0; i < nodes.length; i++) {
+			right[rightStart + i] = nodes[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the sibling on the left.
+	 *
+	 * @return this location
+	 * @throws ZipperException if location marks the most left node
+	 */
+	public TransientLoc<T> removeLeft() {
+		if (!isFirst()) {
+			ownSiblings();
+			left[--leftCount] = null;
+			return this;
+		}
+		throw new ZipperException("Current node is the most left node!");
+	}
+
+	/**
+	 * Removes next sibling to the right.
+	 *
+	 * @return this location
+	 * @throws ZipperException if location marks the most right node
+	 */
+	public TransientLoc<T> removeRight() {
+		if (!isLast()) {
+			ownSiblings();
+			right[rightStart++] = null;
+			return this;
+		}
+		throw new ZipperException("Current node is the most right node!");
+	}
+
+	/**
+	 * Remove current node and move to the parent location.
+	 *
+	 * @return this location
+	 * @throws ZipperException if location marks the top node
+	 */
+	@SuppressWarnings("unchecked")
+	public TransientLoc<T> remove() {
+		checkOwner();
+		if (!context.isTop()) {
+			ownSiblings();
+			int rightCount = right.length - rightStart;
+			IZipNode[] ch = grow(left, leftCount, leftCount + rightCount);
+			System.arraycopy(right, rightStart, ch, leftCount, rightCount);
+
+			node = (ZipNode<T>)context.getParentNode();
+			context = context.getParentContext();
+			origin = context.origin();
+			children = ch;
+			childCount = leftCount + rightCount;
+			left = right = null;
+			return this;
+		}
+		throw new ZipperException("Current node is already the top node!");
+	}
+
+	/**
+	 * Replaces current location node.
+	 *
+	 * @param node
+	 * @return this location
+	 */
+	public TransientLoc<T> replace(final IZipNode node) {
+		checkOwner();
+		this.node = this.node.wrap(node);
+		children = null;
+		return this;
+	}
+
+	/**
+	 * Replaces the source node for the current location.
+	 *
+	 * @param node
+	 * @return this location
+	 */
+	public TransientLoc<T> replaceSource(final T node) {
+		checkOwner();
+		if (node instanceof ZipNode<?>) {
+			throw new IllegalArgumentException("ZipNode not supported!");
+		}
+		freezeNode();
+		this.node = this.node.replaceNode(node);
+		return this;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * @throws ZipperException if called by a non-owner
+	 *         thread or after <tt>persistent()</tt>
+	 */
+	private void checkOwner() {
+		if (owner != Thread.currentThread()) {
+			if (owner == null) {
+				throw new ZipperException("Transient location used after persistent()!");
+			}
+			throw new ZipperException("Transient location used by a non-owner thread!");
+		}
+	}
+
+	/**
+	 * Continue at location <tt>loc</tt>,
+	 * all owned arrays must be frozen.
+	 */
+	private void set(final Loc<T> loc) {
+		node = loc.node();
+		context = loc.context();
+		origin = context.origin();
+	}
+
+	/**
+	 * Freezes owned arrays, the arrays are shared
+	 * by the resulting location and released.
+	 *
+	 * @return location for the current state
+	 */
+	private Loc<T> toLoc() {
+		freezeNode();
+		if (left != null) {
+			ZipOptions options = node.options();
+			context = new Context(context.getParentNode(), context.getParentContext(),
+					options.toSeq(left, 0, leftCount), options.toSeq(right, rightStart, right.length),
+					origin, true, true);
+			left = right = null;
+		}
+		return new Loc<T>(node, context);
+	}
+
+	/**
+	 * Freezes the owned children array into the focus node.
+	 */
+	private void freezeNode() {
+		if (children != null) {
+			node = new ZipNode<T>(node._source(), node.options().toSeq(children, 0, childCount), node.options());
+			children = null;
+		}
+	}
+
+	/**
+	 * @return the node to store in the sibling arrays,
+	 *         the original node if the focus is unchanged
+	 */
+	private IZipNode sibling() {
+		return Context.isOrigin(origin, node)? origin : node;
+	}
+
+	/**
+	 * Takes ownership of the children array.
+	 *
+	 * @param extra capacity required
+	 */
+	private void ownChildren(final int extra) {
+		if (children == null) {
+			Seq ch = node.children();
+			children = new IZipNode[Math.max(MIN_CAPACITY, (ch.size() + extra) * 3 / 2)];
+			ch.copyTo(children, 0);
+			childCount = ch.size();
+		} else {
+			children = grow(children, childCount, childCount + extra);
+		}
+	}
+
+	/**
+	 * Takes ownership of the sibling arrays.
+	 */
+	private void ownSiblings() {
+		if (left == null) {
+			Seq l = context.leftNodes();
+			left = new IZipNode[Math.max(MIN_CAPACITY, l.size() * 3 / 2)];
+			l.copyTo(left, 0);
+			leftCount = l.size();
+
+			Seq r = context.rightNodes();
+			right = new IZipNode[Math.max(MIN_CAPACITY, r.size() * 3 / 2)];
+			rightStart = right.length - r.size();
+			r.copyTo(right, rightStart);
+		}
+	}
+
+	/**
+	 * Ensures free space for <tt>count</tt> nodes in front of the right siblings.
+	 */
+	private void growRight(final int count) {
+		if (rightStart < count) {
+			int size = right.length - rightStart;
+			IZipNode[] r = new IZipNode[Math.max(right.length * 2, size + count)];
+			System.arraycopy(right, rightStart, r, r.length - size, size);
+			rightStart = r.length - size;
+			right = r;
+		}
+	}
+
+	/**
+	 * @return <tt>array</tt> or a copy with at least <tt>capacity</tt>
+	 */
+	private static IZipNode[] grow(final IZipNode[] array, final int size, final int capacity) {
+		if (array.length >= capacity) {
+			return array;
+		}
+		IZipNode[] a = new IZipNode[Math.max(array.length * 2, capacity)];
+		System.arraycopy(array, 0, a, 0, size);
+		return a;
+	}
+
+}
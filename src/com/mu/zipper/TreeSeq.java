@@ -0,0 +1,278 @@
+package com.mu.zipper;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Internal persistent sequence backed by a size annotated
+ * AVL tree. Index access, insert and remove at any
+ * position, slicing and concatenation are O(log n),
+ * every operation shares all untouched tree nodes.
+ * Used for children and sibling sets of zippers
+ * created with <tt>ZipOptions.Storage.TREE</tt>.
+ *
+ * @author Adam Smyczek
+ */
+final class TreeSeq extends Seq {
+
+	// The empty tree sequence
+	protected static final TreeSeq EMPTY = new TreeSeq(null);
+
+	// Tree root, null for the empty sequence
+	private final Tree root;
+
+	private TreeSeq(final Tree root) {
+		super(size(root));
+		this.root = root;
+	}
+
+	/**
+	 * Creates a balanced tree sequence from an array range in O(n).
+	 *
+	 * @param nodes array
+	 * @param from index
+	 * @param to index
+	 * @return the tree sequence
+	 */
+	protected static TreeSeq of(final IZipNode[] nodes, final int from, final int to) {
+		return wrap(build(nodes, from, to));
+	}
+
+	/**
+	 * Joins <tt>left</tt>, <tt>node</tt> and <tt>right</tt> in O(log n).
+	 */
+	protected static TreeSeq join(final TreeSeq left, final IZipNode node, final TreeSeq right) {
+		return wrap(join(left.root, node, right.root));
+	}
+
+	/**
+	 * Concatenates <tt>left</tt> and <tt>right</tt> in O(log n).
+	 */
+	protected static TreeSeq concat(final TreeSeq left, final TreeSeq right) {
+		if (left.root == null) return right;
+		if (right.root == null) return left;
+		return wrap(join(take(left.root, left.size() - 1), get(left.root, left.size() - 1), right.root));
+	}
+
+	@Override
+	protected IZipNode get(final int index) {
+		return get(root, index);
+	}
+
+	@Override
+	protected IZipNode first() {
+		return get(root, 0);
+	}
+
+	@Override
+	protected Seq rest() {
+		return wrap(drop(root, 1));
+	}
+
+	@Override
+	protected IZipNode last() {
+		return get(root, size() - 1);
+	}
+
+	@Override
+	protected Seq init() {
+		return wrap(take(root, size() - 1));
+	}
+
+	@Override
+	protected Seq cons(final IZipNode node) {
+		return wrap(join(null, node, root));
+	}
+
+	@Override
+	protected Seq snoc(final IZipNode node) {
+		return wrap(join(root, node, null));
+	}
+
+	@Override
+	protected Seq slice(final int from, final int to) {
+		return wrap(take(drop(root, from), to - from));
+	}
+
+	@Override
+	protected void copyElements(final IZipNode[] dest, final int offset) {
+		int i = offset;
+		for (Iterator<IZipNode> iter = iterator(); iter.hasNext(); ) {
+			dest[i++] = iter.next();
+		}
+	}
+
+	/**
+	 * In-order iterator, uses a stack of tree height.
+	 */
+	@Override
+	public Iterator<IZipNode> iterator() {
+		return new Iterator<IZipNode>() {
+
+			private final Tree[] stack = new Tree[height(root)];
+
+			private int top = push(root, 0);
+
+			private int push(Tree t, int top) {
+				while (t != null) {
+					stack[top++] = t;
+					t = t.left;
+				}
+				return top;
+			}
+
+			public boolean hasNext() {
+				return top > 0;
+			}
+
+			public IZipNode next() {
+				if (top == 0) throw new NoSuchElementException();
+				Tree t = stack[--top];
+				top = push(t.right, top);
+				return t.value;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+	}
+
+	// ---- AVL tree ----
+
+	/**
+	 * Immutable tree node.
+	 */
+	private static final class Tree {
+
+		private final Tree left;
+
+		private final IZipNode value;
+
+		private final Tree right;
+
+		private final int size;
+
+		private final int height;
+
+		private Tree(final Tree left, final IZipNode value, final Tree right) {
+			this.left = left;
+			this.value = value;
+			this.right = right;
+			this.size = size(left) + size(right) + 1;
+			this.height = Math.max(height(left), height(right)) + 1;
+		}
+
+	}
+
+	private static TreeSeq wrap(final Tree t) {
+		return (t == null)? EMPTY : new TreeSeq(t);
+	}
+
+	private static int size(final Tree t) {
+		return (t == null)? 0 : t.size;
+	}
+
+	private static int height(final Tree t) {
+		return (t == null)? 0 : t.height;
+	}
+
+	private static Tree build(final IZipNode[] nodes, final int from, final int to) {
+		if (from >= to) return null;
+		int mid = (from + to) >>> 1;
+		return new Tree(build(nodes, from, mid), nodes[mid], build(nodes, mid + 1, to));
+	}
+
+	private static IZipNode get(Tree t, int index) {
+		if (index < 0 || index >= size(t)) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		while (true) {
+			int ls = size(t.left);
+			if (index < ls) {
+				t = t.left;
+			} else if (index == ls) {
+				return t.value;
+			} else {
+				index -= ls + 1;
+				t = t.right;
+			}
+		}
+	}
+
+	/**
+	 * @return tree containing the first <tt>n</tt> elements
+	 */
+	private static Tree take(final Tree t, final int n) {
+		if (t == null || n <= 0) return null;
+		if (n >= t.size) return t;
+		int ls = size(t.left);
+		if (n <= ls) {
+			return take(t.left, n);
+		}
+		return join(t.left, t.value, take(t.right, n - ls - 1));
+	}
+
+	/**
+	 * @return tree without the first <tt>n</tt> elements
+	 */
+	private static Tree drop(final Tree t, final int n) {
+		if (t == null || n <= 0) return t;
+		if (n >= t.size) return null;
+		int ls = size(t.left);
+		if (n > ls) {
+			return drop(t.right, n - ls - 1);
+		}
+		return join(drop(t.left, n), t.value, t.right);
+	}
+
+	/**
+	 * Joins two trees with a middle value, see
+	 * "Just Join for Parallel Ordered Sets", Blelloch et al.
+	 */
+	private static Tree join(final Tree l, final IZipNode value, final Tree r) {
+		if (height(l) > height(r) + 1) return joinRight(l, value, r);
+		if (height(r) > height(l) + 1) return joinLeft(l, value, r);
+		return new Tree(l, value, r);
+	}
+
+	private static Tree joinRight(final Tree l, final IZipNode value, final Tree r) {
+		Tree c = l.right;
+		if (height(c) <= height(r) + 1) {
+			Tree t = new Tree(c, value, r);
+			if (height(t) <= height(l.left) + 1) {
+				return new Tree(l.left, l.value, t);
+			}
+			return rotateLeft(new Tree(l.left, l.value, rotateRight(t)));
+		}
+		Tree t = joinRight(c, value, r);
+		Tree t2 = new Tree(l.left, l.value, t);
+		return (height(t) <= height(l.left) + 1)? t2 : rotateLeft(t2);
+	}
+
+	private static Tree joinLeft(final Tree l, final IZipNode value, final Tree r) {
+		Tree c = r.left;
+		if (height(c) <= height(l) + 1) {
+			Tree t = new Tree(l, value, c);
+			if (height(t) <= height(r.right) + 1) {
+				return new Tree(t, r.value, r.right);
+			}
+			return rotateRight(new Tree(rotateLeft(t), r.value, r.right));
+		}
+		Tree t = joinLeft(l, value, c);
+		Tree t2 = new Tree(t, r.value, r.right);
+		return (height(t) <= height(r.right) + 1)? t2 : rotateRight(t2);
+	}
+
+	private static Tree rotateLeft(final Tree t) {
+		Tree r = t.right;
+		return new Tree(new Tree(t.left, t.value, r.left), r.value, r.right);
+	}
+
+	private static Tree rotateRight(final Tree t) {
+		Tree l = t.left;
+		return new Tree(l.left, l.value, new Tree(l.right, t.value, t.right));
+	}
+
+}
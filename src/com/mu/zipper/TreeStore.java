@@ -0,0 +1,254 @@
+package com.mu.zipper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.function.Function;
+
+/**
+ * A read-only tree stored in a memory-mapped file. The
+ * nodes are <tt>MappedNode</tt>s decoded on access, navigating
+ * a zipped store tree reads only the records and pages of the
+ * visited nodes. Trees larger than the heap can be zipped,
+ * see <tt>Zipper.zip(Path)</tt>.
+ *
+ * The file format, all numbers big-endian:
+ * <pre>
+ *   header   - magic "ZTR1", version, node count, reserved (4 ints),
+ *              offset of the node table, offset of the payloads (2 longs)
+ *   table    - one 16 byte record per node in breadth-first order:
+ *              child count (-1 for leaf nodes), id of the first child,
+ *              payload offset (int, int, long)
+ *   payloads - node payloads, the payload of a node ends
+ *              at the payload of the next node
+ * </pre>
+ * The children of a node have consecutive ids, <tt>childAt()</tt>
+ * is O(1). Edits are kept by the zipper, use <tt>write()</tt>
+ * to store an edited tree to a new file.
+ *
+ * @author Adam Smyczek
+ */
+public final class TreeStore {
+
+	// File magic "ZTR1" and version
+	private static final int MAGIC = 0x5A545231;
+	private static final int VERSION = 1;
+
+	// Header and node record size
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 16;
+
+	// Size of a mapped segment, a multiple of the record size
+	private static final int SEGMENT_SIZE = 1 << 30;
+
+	// Mapped file segments
+	private final MappedByteBuffer[] segments;
+
+	private final int size;
+
+	private final long tableOffset;
+
+	private final long payloadOffset;
+
+	private final long payloadSize;
+
+	private TreeStore(final MappedByteBuffer[] segments, final int size, final long tableOffset,
+			final long payloadOffset, final long payloadSize) {
+		super();
+		this.segments = segments;
+		this.size = size;
+		this.tableOffset = tableOffset;
+		this.payloadOffset = payloadOffset;
+		this.payloadSize = payloadSize;
+	}
+
+	/**
+	 * Maps a tree file read-only. The file must not be
+	 * modified while the store is used.
+	 *
+	 * @param file tree file
+	 * @return the store
+	 * @throws IOException if the file can not be read or is not a tree file
+	 */
+	public static TreeStore open(final Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_SIZE) {
+				throw new IOException("Invalid tree file!");
+			}
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int)((length - 1) / SEGMENT_SIZE) + 1];
+			for (int i = 0; i < segments.length; i++) {
+				long position = (long)i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+			}
+			ByteBuffer header = segments[0];
+			int size = header.getInt(8);
+			long tableOffset = header.getLong(16);
+			long payloadOffset = header.getLong(24);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || size < 1
+					|| tableOffset != HEADER_SIZE || payloadOffset != tableOffset + (long)size * RECORD_SIZE
+					|| payloadOffset > length) {
+				throw new IOException("Invalid tree file!");
+			}
+			return new TreeStore(segments, size, tableOffset, payloadOffset, length - payloadOffset);
+		}
+	}
+
+	/**
+	 * Writes the tree of <tt>location</tt> including all
+	 * edits to <tt>file</tt>, starting at the root node.
+	 *
+	 * @param <T> concrete node type
+	 * @param location any location of the tree
+	 * @param payload encodes the payload of a node
+	 * @param file target file, replaced if it exists
+	 * @throws IOException if the file can not be written
+	 */
+	public static <T extends IZipNode> void write(final Loc<T> location, final Function<? super T, byte[]> payload,
+			final Path file) throws IOException {
+		TreeStore.<T>store(location.root().node(), payload, file);
+	}
+
+	/**
+	 * Writes the tree of a source node, see <tt>write(Loc, Function, Path)</tt>.
+	 *
+	 * @param <T> concrete node type
+	 * @param node root node
+	 * @param payload encodes the payload of a node
+	 * @param file target file, replaced if it exists
+	 * @throws IOException if the file can not be written
+	 */
+	public static <T extends IZipNode> void write(final T node, final Function<? super T, byte[]> payload,
+			final Path file) throws IOException {
+		TreeStore.<T>store(node, payload, file);
+	}
+
+	/**
+	 * @return the root node
+	 */
+	public MappedNode root() {
+		return new MappedNode(this, 0);
+	}
+
+	/**
+	 * @return number of stored nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	// ---- Node access ----
+
+	protected int childCount(final int id) {
+		return readInt(record(id));
+	}
+
+	protected int firstChild(final int id) {
+		return readInt(record(id) + 4);
+	}
+
+	protected byte[] payload(final int id) {
+		long start = readLong(record(id) + 8);
+		long end = (id + 1 < size)? readLong(record(id + 1) + 8) : payloadSize;
+		if (start < 0 || start > end || end > payloadSize || end - start > Integer.MAX_VALUE) {
+			throw new ZipperException("Corrupt tree file!");
+		}
+		byte[] bytes = new byte[(int)(end - start)];
+		long position = payloadOffset + start;
+		for (int i = 0; i < bytes.length; ) {
+			// A payload may span two segments
+			ByteBuffer segment = segments[(int)(position / SEGMENT_SIZE)].duplicate();
+			segment.position((int)(position % SEGMENT_SIZE));
+			int n = Math.min(bytes.length - i, segment.remaining());
+			segment.get(bytes, i, n);
+			i += n;
+			position += n;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes the tree of a ZipNode or source node.
+	 */
+	private static <T extends IZipNode> void store(final IZipNode node, final Function<? super T, byte[]> payload,
+			final Path file) throws IOException {
+		// Records are written in breadth-first order, the payloads to a temporary
+		// file which is appended to the table.
+		Path payloads = Files.createTempFile("zipper", ".payloads");
+		try {
+			int size = 0;
+			try (DataOutputStream table = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+					OutputStream data = new BufferedOutputStream(Files.newOutputStream(payloads))) {
+				table.write(new byte[HEADER_SIZE]);
+				ArrayDeque<IZipNode> queue = new ArrayDeque<IZipNode>();
+				queue.add(node);
+				long offset = 0;
+				int next = 1;
+				while (!queue.isEmpty()) {
+					IZipNode n = queue.poll();
+					Object children = Children.of(n);
+					int count = (children == null)? -1 : Children.size(children);
+					byte[] bytes = payload.apply(Children.<T>source(n));
+					table.writeInt(count);
+					table.writeInt((count > 0)? next : -1);
+					table.writeLong(offset);
+					data.write(bytes);
+					offset += bytes.length;
+					for (int i = 0; i < count; i++) {
+						queue.add(Children.get(children, i));
+					}
+					next += Math.max(count, 0);
+					if (++size < 0 || next < 0) {
+						throw new IOException("Too many nodes!");
+					}
+				}
+				data.flush();
+				try (InputStream in = Files.newInputStream(payloads)) {
+					byte[] buf = new byte[8192];
+					for (int r = in.read(buf); r >= 0; r = in.read(buf)) {
+						table.write(buf, 0, r);
+					}
+				}
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0);
+			header.putLong(HEADER_SIZE).putLong(HEADER_SIZE + (long)size * RECORD_SIZE);
+			header.flip();
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write(header, 0);
+			}
+		} finally {
+			Files.delete(payloads);
+		}
+	}
+
+	/**
+	 * @return file position of the record of node <tt>id</tt>
+	 */
+	private long record(final int id) {
+		if (id < 0 || id >= size) {
+			throw new ZipperException("Invalid node id!");
+		}
+		return tableOffset + (long)id * RECORD_SIZE;
+	}
+
+	// Records are aligned, values never span two segments
+
+	private int readInt(final long position) {
+		return segments[(int)(position / SEGMENT_SIZE)].getInt((int)(position % SEGMENT_SIZE));
+	}
+
+	private long readLong(final long position) {
+		return segments[(int)(position / SEGMENT_SIZE)].getLong((int)(position % SEGMENT_SIZE));
+	}
+
+}
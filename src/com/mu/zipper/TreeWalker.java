@@ -0,0 +1,241 @@
+package com.mu.zipper;
+
+/**
+ * A reusable depth-first walker over the subtree of a location.
+ * In difference to the <tt>next()</tt>/<tt>isEnd()</tt> loop
+ * the walker does not create a location per node. It keeps
+ * an explicit stack of nodes and child indexes and calls a
+ * <tt>Visitor</tt> in pre-order on enter and in post-order
+ * on leave. A location for the current node is created only
+ * on request, see <tt>loc()</tt>.
+ *
+ * The walker visits the tree as seen by the start location,
+ * including all changes made through the zipper. Visitors
+ * receive the source nodes. The stack is reused by following
+ * walks, a walker must not be shared by threads.
+ *
+ * Example, count all leaf nodes below the location <tt>l</tt>:
+ * <pre>
+ *   final int[] leafs = new int[1];
+ *   new TreeWalker&lt;Node&gt;().walk(l, new TreeWalker.Visitor&lt;Node&gt;() {
+ *     public TreeWalker.Visit enter(TreeWalker&lt;Node&gt; w, Node n) {
+ *       if (n.getChildren() == null) leafs[0]++;
+ *       return TreeWalker.Visit.CONTINUE;
+ *     }
+ *     public void leave(TreeWalker&lt;Node&gt; w, Node n) {}
+ *   });
+ * </pre>
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> the concrete node type
+ */
+public final class TreeWalker<T extends IZipNode> {
+
+	/**
+	 * Result of <tt>Visitor#enter()</tt>.
+	 */
+	public enum Visit {
+
+		/** Continue with the children of the node */
+		CONTINUE,
+
+		/** Skip the children of the node */
+		SKIP,
+
+		/** Stop the walk, no further nodes are entered or left */
+		STOP;
+	}
+
+	/**
+	 * Walk callback.
+	 *
+	 * @param <T> the concrete node type
+	 */
+	public interface Visitor<T extends IZipNode> {
+
+		/**
+		 * Called before the children of <tt>node</tt> are visited.
+		 *
+		 * @param walker the walker, use for depth or location of the node
+		 * @param node the source node
+		 * @return how to continue the walk
+		 */
+		Visit enter(TreeWalker<T> walker, T node);
+
+		/**
+		 * Called after the children of <tt>node</tt> were visited
+		 * or skipped. Not called if the walk was stopped.
+		 *
+		 * @param walker the walker
+		 * @param node the source node
+		 */
+		void leave(TreeWalker<T> walker, T node);
+
+	}
+
+	// Initial stack size
+	private static final int INITIAL_DEPTH = 16;
+
+	// Start location of the current walk
+	private Loc<T> start;
+
+	// Node at every depth of the current path
+	private IZipNode[] nodes = new IZipNode[INITIAL_DEPTH];
+
+	// Child index of the node at every depth, unused at depth 0
+	private int[] indexes = new int[INITIAL_DEPTH];
+
+	// Children of the node at every depth, see Children
+	private Object[] children = new Object[INITIAL_DEPTH];
+
+	// Number of children of the node at every depth
+	private int[] counts = new int[INITIAL_DEPTH];
+
+	// Depth of the current node, relative to the start location
+	private int depth;
+
+	/**
+	 * Walks the subtree of <tt>from</tt> in depth-first order.
+	 *
+	 * @param from start location, the root of the walk
+	 * @param visitor callback
+	 * @return false if the walk was stopped by the visitor, true otherwise
+	 */
+	public boolean walk(final Loc<T> from, final Visitor<T> visitor) {
+		start = from;
+		depth = 0;
+		nodes[0] = from.node();
+		while (true) {
+			// Enter the current node
+			Visit visit = visitor.enter(this, source(nodes[depth]));
+			if (visit == Visit.STOP) {
+				clear();
+				return false;
+			}
+			if (visit == Visit.CONTINUE && initChildren(depth) > 0) {
+				push(child(depth, 0), 0);
+				continue;
+			}
+
+			// Leave the node and all completed parents,
+			// continue with the next sibling
+			while (true) {
+				visitor.leave(this, source(nodes[depth]));
+				if (depth == 0) {
+					clear();
+					return true;
+				}
+				int next = indexes[depth] + 1;
+				if (next < counts[depth - 1]) {
+					nodes[depth] = child(depth - 1, next);
+					indexes[depth] = next;
+					break;
+				}
+				nodes[depth] = null;
+				children[--depth] = null;
+			}
+		}
+	}
+
+	/**
+	 * @return depth of the current node relative to the start location
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * @return the current node, a source node or a ZipNode
+	 */
+	public IZipNode node() {
+		return nodes[depth];
+	}
+
+	/**
+	 * @return child index of the current node, 0 for the start node
+	 */
+	public int index() {
+		return (depth == 0)? 0 : indexes[depth];
+	}
+
+	/**
+	 * Creates the location for the current node by moving
+	 * down from the start location, O(depth).
+	 *
+	 * @return location of the current node
+	 */
+	public Loc<T> loc() {
+		Loc<T> l = start;
+		for (int d = 1; d <= depth; d++) {
+			l = l.down(indexes[d]);
+		}
+		return l;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * Moves one level down to <tt>node</tt> at child position <tt>index</tt>.
+	 */
+	private void push(final IZipNode node, final int index) {
+		depth++;
+		if (depth == nodes.length) {
+			int size = nodes.length * 2;
+			IZipNode[] n = new IZipNode[size];
+			System.arraycopy(nodes, 0, n, 0, depth);
+			nodes = n;
+			int[] i = new int[size];
+			System.arraycopy(indexes, 0, i, 0, depth);
+			indexes = i;
+			Object[] ch = new Object[size];
+			System.arraycopy(children, 0, ch, 0, depth);
+			children = ch;
+			int[] c = new int[size];
+			System.arraycopy(counts, 0, c, 0, depth);
+			counts = c;
+		}
+		nodes[depth] = node;
+		indexes[depth] = index;
+	}
+
+	/**
+	 * Resolves the children of the node at depth <tt>d</tt>,
+	 * see <tt>Children</tt>.
+	 *
+	 * @return number of children
+	 */
+	private int initChildren(final int d) {
+		children[d] = Children.of(nodes[d]);
+		counts[d] = Children.size(children[d]);
+		return counts[d];
+	}
+
+	/**
+	 * @return the <tt>index</tt>-th child of the node at depth <tt>d</tt>
+	 */
+	private IZipNode child(final int d, final int index) {
+		return Children.get(children[d], index);
+	}
+
+	/**
+	 * @return the source node for a ZipNode or source node
+	 */
+	private T source(final IZipNode node) {
+		return Children.<T>source(node);
+	}
+
+	/**
+	 * Releases the node references of the current path after
+	 * a completed or stopped walk.
+	 */
+	private void clear() {
+		for (int d = 0; d <= depth; d++) {
+			nodes[d] = null;
+			children[d] = null;
+		}
+		depth = 0;
+		start = null;
+	}
+
+}
@@ -1,7 +1,10 @@
 package com.mu.zipper;
 
-import java.util.Arrays;
+import java.util.AbstractList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Internal Zipper node, a wrapper around a tree IZipNode.
@@ -19,30 +22,69 @@ import java.util.Collection;
  */
 public final class ZipNode<T extends IZipNode> implements IZipNode {
 
-	// Marks children array as not initialized (default)
-	private static final IZipNode[] NOT_INITIALIZED = new IZipNode[0];
+	// Marks children sequence as not initialized (default)
+	private static final Seq NOT_INITIALIZED = Seq.marker();
+	
+	// Marks children sequence initialized by another thread
+	private static final Seq IN_PROGRESS = Seq.marker();
+	
+	// CAS on the children field
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ZipNode, Seq> CHILDREN = 
+		AtomicReferenceFieldUpdater.newUpdater(ZipNode.class, Seq.class, "children");
 	
 	// The wrapped node
 	private final T node;
 	
-	// Lazy initialized children list
-	private IZipNode[] children;
+	// Zipper options
+	private final ZipOptions options;
+	
+	// Lazy initialized children sequence, volatile for safe publication
+	// and CAS, see init()
+	private volatile Seq children;
+	
+	// True if this subtree differs from the subtree of the source node
+	private final boolean modified;
+	
+	// True if the children differ from the children of the source node
+	private final boolean childrenModified;
+	
+	// Cached subtree hash, 0 if not computed yet
+	private volatile long hash;
 	
 	/**
 	 * Default constructor,
 	 * the children list is marked as not initialized.
 	 * 
 	 * @param node wrapped node
+	 * @param options zipper options
 	 */
-	protected ZipNode(final T node) {
-		this(node, NOT_INITIALIZED);
+	protected ZipNode(final T node, final ZipOptions options) {
+		this(node, NOT_INITIALIZED, options, false, false);
 	}
 	
 	/**
+	 * Constructor for a node with modified children.
+	 * 
 	 * @param node wrapped node
-	 * @param children list
+	 * @param children sequence
+	 * @param options zipper options
 	 */
-	protected ZipNode(final T node, final IZipNode[] children) {
+	protected ZipNode(final T node, final Seq children, final ZipOptions options) {
+		this(node, children, options, true, true);
+	}
+	
+	/**
+	 * @param node wrapped node
+	 * @param children sequence
+	 * @param options zipper options
+	 * @param modified false if the subtree of this node equals
+	 *        the subtree of the source node
+	 * @param childrenModified false if <tt>children</tt> are the 
+	 *        children of the source node (wrapped or not)
+	 */
+	protected ZipNode(final T node, final Seq children, final ZipOptions options, 
+			final boolean modified, final boolean childrenModified) {
 		super();
 		
 		if (node == null) throw new IllegalArgumentException("Node is null!");
@@ -50,6 +92,9 @@ public final class ZipNode<T extends IZipNode> implements IZipNode {
 		
 		this.node = node;
 		this.children = children;
+		this.options = options;
+		this.modified = modified || childrenModified;
+		this.childrenModified = childrenModified;
 	}
 	
 	/**
@@ -65,36 +110,87 @@ public final class ZipNode<T extends IZipNode> implements IZipNode {
 		return node;
 	}
 	
+	/**
+	 * @return zipper options of this node
+	 */
+	public ZipOptions options() {
+		return options;
+	}
+	
+	/**
+	 * @return true if this node or a node below it was changed
+	 *         by a zipper edit or the source node was replaced
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+	
+	/**
+	 * @return true if the children of this node differ from
+	 *         the children of the source node, false if only
+	 *         nodes further below were changed
+	 */
+	protected boolean isChildrenModified() {
+		return childrenModified;
+	}
+	
+	/**
+	 * Returns the Merkle hash of this subtree, computed from
+	 * the payload hashes of the zipper options hasher. The hash
+	 * is computed on first call and cached, edits rehash only
+	 * the ZipNodes on the path to the root.
+	 * 
+	 * @return subtree hash
+	 * @throws ZipperException if the zipper options have no hasher
+	 */
+	public long subtreeHash() {
+		long h = hash;
+		return (h != 0)? h : SubtreeHash.hash(this);
+	}
+	
+	/**
+	 * @return cached subtree hash, 0 if not computed yet
+	 */
+	protected long cachedHash() {
+		return hash;
+	}
+	
+	/**
+	 * @param hash computed subtree hash
+	 */
+	protected void cacheHash(final long hash) {
+		this.hash = hash;
+	}
+	
 	/**
 	 * @return true if this node is a leaf node
 	 */
 	public boolean isLeaf() {
-		init();
-		return children == null;
+		return init() == null;
 	}
 	
 	/**
 	 * @return true if this node has children
 	 */
 	public boolean hasChildren() {
-		init();
-		return children != null && children.length > 0;
+		Seq ch = init();
+		return ch != null && ch.size() > 0;
 	}
 	
 	/**
-	 * @return the children array
+	 * @return the children sequence
 	 */
-	protected IZipNode[] children() {
-		init();
-		return children;
+	protected Seq children() {
+		return init();
 	}
 	
 	/**
 	 * Implements <tt>IZipNode#getChildren()</tt> method.
+	 * The returned list is a read-only view of the children.
 	 */
 	public Collection<? extends IZipNode> getChildren() {
-		init();
-		return (children != null)? Arrays.asList(children) : null;
+		Seq ch = init();
+		return (ch != null)? new ChildrenList(ch) : null;
 	}
 	
 	/**
@@ -105,19 +201,124 @@ public final class ZipNode<T extends IZipNode> implements IZipNode {
 	 * @return new ZipNode instance
 	 */
 	protected ZipNode<T> replaceNode(final T node) {
-		init();
-		return new ZipNode<T>(node, children);
+		return new ZipNode<T>(node, init(), options);
 	}
 	
 	/**
-	 * Initializes the children array if not initialized yet.
+	 * ZipNode constructor helper
+	 * 
+	 * @param node
+	 * @return same node if <tt>node</tt> is a ZipNode already,
+	 * a new ZipNode wrapper with the options of this node otherwise
 	 */
-	private void init() {
-		if (children == NOT_INITIALIZED) {
-			Collection<? extends IZipNode> ch = node.getChildren();
-			children = (ch == null)? null : ch.toArray(new IZipNode[0]);
+	@SuppressWarnings("unchecked")
+	protected ZipNode<T> wrap(final IZipNode node) {
+		if (node instanceof ZipNode<?>) {
+			return (ZipNode<T>) node;
+		} else {
+			return new ZipNode<T>((T)node, options);
 		}
 	}
+	
+	/**
+	 * Returns the children sequence, initialized on first access,
+	 * see <tt>initialize()</tt>. The hot path is a single
+	 * volatile read.
+	 * 
+	 * @return the children sequence
+	 */
+	private Seq init() {
+		Seq ch = children;
+		return (ch == NOT_INITIALIZED || ch == IN_PROGRESS)? initialize() : ch;
+	}
+	
+	/**
+	 * Initializes the children sequence exactly once. The first
+	 * caller marks the sequence <tt>IN_PROGRESS</tt> and reads the
+	 * children, concurrent callers wait for the result. If reading 
+	 * the children fails, the sequence is reset to not initialized.
+	 * Children of <tt>IIndexedZipNode</tt>s are fetched on demand 
+	 * and never wrapped.
+	 * 
+	 * @return the children sequence
+	 */
+	private Seq initialize() {
+		while (true) {
+			Seq ch = children;
+			if (ch == NOT_INITIALIZED) {
+				if (CHILDREN.compareAndSet(this, NOT_INITIALIZED, IN_PROGRESS)) {
+					Seq result = NOT_INITIALIZED;
+					try {
+						result = load();
+					} finally {
+						children = result;
+					}
+					return result;
+				}
+			} else if (ch == IN_PROGRESS) {
+				Thread.yield();
+			} else {
+				return ch;
+			}
+		}
+	}
+	
+	/**
+	 * @return new children sequence of the source node
+	 */
+	private Seq load() {
+		if (node instanceof IIndexedZipNode) {
+			int count = ((IIndexedZipNode)node).childCount();
+			return (count < 0)? null : IndexedSeq.of((IIndexedZipNode)node, count);
+		}
+		Collection<? extends IZipNode> c = node.getChildren();
+		return (c == null)? null : options.toSeq(hashed(c.toArray(new IZipNode[0])));
+	}
+	
+	/**
+	 * With subtree hashes enabled the children are wrapped
+	 * into ZipNodes, to cache the hashes of unvisited children.
+	 * 
+	 * @param nodes children array
+	 * @return <tt>nodes</tt>
+	 */
+	private IZipNode[] hashed(final IZipNode[] nodes) {
+		if (options.getHasher() != null) {
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = wrap(nodes[i]);
+			}
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Read-only list view of a children sequence.
+	 */
+	private static final class ChildrenList extends AbstractList<IZipNode> implements RandomAccess {
+		
+		private final Seq seq;
+		
+		private ChildrenList(final Seq seq) {
+			super();
+			this.seq = seq;
+		}
+
+		@Override
+		public IZipNode get(int index) {
+			return seq.get(index);
+		}
+
+		@Override
+		public int size() {
+			return seq.size();
+		}
+
+		@Override
+		public Iterator<IZipNode> iterator() {
+			return seq.iterator();
+		}
+		
+	}
 
 	@Override
 	public String toString() {
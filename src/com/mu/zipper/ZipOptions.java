@@ -0,0 +1,132 @@
+package com.mu.zipper;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Zipper options, selected per zipper on <tt>Zipper.zip()</tt>.
+ * The options are shared by all nodes and locations of
+ * the zipped tree. Options are immutable, use the
+ * <tt>with...()</tt> methods to derive new options
+ * from <tt>DEFAULT</tt>.
+ *
+ * @author Adam Smyczek
+ */
+public final class ZipOptions {
+
+	/**
+	 * Storage of children and sibling nodes.
+	 */
+	public enum Storage {
+
+		/**
+		 * Flat arrays, the fastest option for narrow nodes.
+		 * Edits of the children set and <tt>up()</tt>
+		 * copy the whole children array.
+		 */
+		ARRAY,
+
+		/**
+		 * Persistent balanced trees, <tt>down(int)</tt>,
+		 * child insert, remove and <tt>up()</tt>
+		 * are O(log n). Use for very wide nodes.
+		 */
+		TREE;
+	}
+
+	// Default options
+	public static final ZipOptions DEFAULT = new ZipOptions(Storage.ARRAY, null, 0);
+
+	// Children storage
+	private final Storage storage;
+
+	// Payload hasher of the subtree hashes, null if disabled
+	private final ToLongFunction<? super IZipNode> hasher;
+
+	// Number of cached child locations per location
+	private final int childCache;
+
+	private ZipOptions(final Storage storage, final ToLongFunction<? super IZipNode> hasher, final int childCache) {
+		super();
+		if (storage == null) throw new IllegalArgumentException("Storage is null!");
+		if (childCache < 0) throw new IllegalArgumentException("Negative child cache size!");
+		this.storage = storage;
+		this.hasher = hasher;
+		this.childCache = childCache;
+	}
+
+	/**
+	 * @return the children storage
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @param storage children storage
+	 * @return new options with <tt>storage</tt>
+	 */
+	public ZipOptions withStorage(final Storage storage) {
+		return new ZipOptions(storage, hasher, childCache);
+	}
+
+	/**
+	 * @return the payload hasher, null if subtree hashes are disabled
+	 */
+	public ToLongFunction<? super IZipNode> getHasher() {
+		return hasher;
+	}
+
+	/**
+	 * Enables cached subtree hashes, see <tt>ZipNode.subtreeHash()</tt>
+	 * and <tt>Loc.subtreeEquals()</tt>. The hasher hashes the
+	 * payload of a source node, not its children. With hashes
+	 * enabled children are wrapped into ZipNodes on first access
+	 * to cache their hashes.
+	 *
+	 * @param hasher payload hasher, null to disable subtree hashes
+	 * @return new options with <tt>hasher</tt>
+	 */
+	public ZipOptions withHasher(final ToLongFunction<? super IZipNode> hasher) {
+		return new ZipOptions(storage, hasher, childCache);
+	}
+
+	/**
+	 * @return number of cached child locations per location
+	 */
+	public int getChildCache() {
+		return childCache;
+	}
+
+	/**
+	 * Enables memoized <tt>down()</tt> moves. A location caches the
+	 * locations of its first <tt>size</tt> children, repeated moves
+	 * to the same child return the same location instance and do not
+	 * allocate. Use for algorithms visiting the children of a location
+	 * repeatedly, the cache is kept as long as the location.
+	 *
+	 * @param size number of cached children per location, 0 to disable
+	 * @return new options with the child cache <tt>size</tt>
+	 */
+	public ZipOptions withChildCache(final int size) {
+		return new ZipOptions(storage, hasher, size);
+	}
+
+	/**
+	 * Creates a children sequence for the storage
+	 * type of this options.
+	 *
+	 * @param nodes children array, must not be modified afterwards
+	 * @return children sequence
+	 */
+	protected Seq toSeq(final IZipNode[] nodes) {
+		return toSeq(nodes, 0, nodes.length);
+	}
+
+	/**
+	 * Same as <tt>toSeq(IZipNode[])</tt> for an array range.
+	 */
+	protected Seq toSeq(final IZipNode[] nodes, final int from, final int to) {
+		return (storage == Storage.TREE)? TreeSeq.of(nodes, from, to) : Seq.of(nodes, from, to);
+	}
+
+}
@@ -1,6 +1,20 @@
 package com.mu.zipper;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Zipper constructor and util functions.
@@ -9,6 +23,12 @@ import java.util.Collection;
  */
 public final class Zipper {
 
+	/**
+	 * Default surplus task threshold of the parallel functions,
+	 * see <tt>parallelFold()</tt>.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 3;
+
 	/**
 	 * Zips the <tt>node</tt> and returns the Zipper
 	 * location for this node.
@@ -18,12 +38,80 @@ public final class Zipper {
 	 * @return Zipper root location
 	 */
 	public static <T extends IZipNode> Loc<T> zip(final T node) {
-		return new Loc<T>(new ZipNode<T>(node), Context.TOP);
+		return zip(node, ZipOptions.DEFAULT);
+	}
+	
+	/**
+	 * Zips the <tt>node</tt> using zipper <tt>options</tt>,
+	 * for example tree backed children storage for
+	 * very wide nodes:
+	 * <pre>
+	 *   Zipper.zip(node, ZipOptions.DEFAULT.withStorage(ZipOptions.Storage.TREE));
+	 * </pre>
+	 * 
+	 * @param <T> concrete IZipNode type
+	 * @param node root node of the tree
+	 * @param options zipper options
+	 * @return Zipper root location
+	 */
+	public static <T extends IZipNode> Loc<T> zip(final T node, final ZipOptions options) {
+		if (options == null) throw new IllegalArgumentException("Options is null!");
+		return new Loc<T>(new ZipNode<T>(node, options), Context.TOP);
+	}
+	
+	/**
+	 * Zips the <tt>node</tt> with hash-consing, structurally 
+	 * equal subtrees share one ZipNode, see <tt>Interner</tt>. 
+	 * The whole tree is visited once. Use <tt>rebuild()</tt>
+	 * to retrieve an edited interned tree.
+	 * 
+	 * @param <T> concrete IZipNode type
+	 * @param node root node of the tree
+	 * @param equivalence node equivalence
+	 * @return Zipper root location
+	 */
+	public static <T extends IZipNode> Loc<T> zipInterned(final T node, final IEquivalence<? super T> equivalence) {
+		return zipInterned(node, new Interner<T>(equivalence));
+	}
+	
+	/**
+	 * Same as <tt>zipInterned(IZipNode, IEquivalence)</tt> using
+	 * the intern table of <tt>interner</tt>, subtrees are shared
+	 * with all trees zipped by the same interner.
+	 * 
+	 * @param <T> concrete IZipNode type
+	 * @param node root node of the tree
+	 * @param interner intern table
+	 * @return Zipper root location
+	 */
+	public static <T extends IZipNode> Loc<T> zipInterned(final T node, final Interner<T> interner) {
+		if (interner == null) throw new IllegalArgumentException("Interner is null!");
+		return new Loc<T>(interner.intern(node), Context.TOP);
+	}
+	
+	/**
+	 * Maps the tree <tt>file</tt> read-only and zips its
+	 * root node, see <tt>TreeStore</tt>. Nodes are read from
+	 * the file on demand, edits are kept by the zipper. Use
+	 * <tt>TreeStore.write()</tt> to store an edited tree, 
+	 * <tt>unzip()</tt> does not support mapped nodes.
+	 * 
+	 * @param file tree file
+	 * @return Zipper root location
+	 * @throws IOException if the file can not be mapped
+	 */
+	public static Loc<MappedNode> zip(final Path file) throws IOException {
+		return zip(TreeStore.open(file).root());
 	}
 	
 	/**
 	 * Opposite to zip, <tt>unzip</tt> re-creates the 
-	 * tree from the Zipper data structure.
+	 * tree from the Zipper data structure. Only the
+	 * changed parts of the tree are visited, the children
+	 * collections of source nodes are rewritten only if
+	 * their children were changed. Committing a single
+	 * edit costs O(depth) plus the number of children
+	 * of the edited nodes.
 	 * 
 	 * @param <T> concrete note type
 	 * @param location a location in the tree
@@ -34,26 +122,142 @@ public final class Zipper {
 	}
 	
 	/**
-	 * Recursive <tt>unzip</tt> call to all children nodes. The children
-	 * of every original source node are replaced with the 
-	 * children of the corresponding ZipNode.
+	 * Iterative <tt>unzip</tt> of all modified nodes.
+	 * The children of every source node with modified children are
+	 * replaced with the source nodes of the corresponding ZipNode
+	 * children. Unmodified subtrees are skipped.
 	 */
 	@SuppressWarnings("unchecked")
 	private static <T extends IZipNode> T unzip(final IZipNode node) {
+		ArrayDeque<ZipNode<?>> stack = new ArrayDeque<ZipNode<?>>();
 		if (node instanceof ZipNode<?>) {
-			ZipNode<T> zipNode = (ZipNode<T>)node;
-			T source = zipNode._source();
-			if (!zipNode.isLeaf()) {
-				Collection<T> ch = (Collection<T>)source.getChildren();
-				source.getChildren().clear();
-    			for (IZipNode n : zipNode.children()) {
-    				ch.add((T)unzip(n));
-    			}
+			stack.push((ZipNode<?>)node);
+		}
+		while (!stack.isEmpty()) {
+			ZipNode<?> zipNode = stack.pop();
+			if (!zipNode.isModified() || zipNode.isLeaf()) {
+				continue;
+			}
+			if (zipNode.isChildrenModified()) {
+				Collection<IZipNode> ch = (Collection<IZipNode>)zipNode._source().getChildren();
+				ch.clear();
+				for (IZipNode n : zipNode.children()) {
+					ch.add(Children.source(n));
+				}
+			}
+			// Only patched children of indexed nodes can be modified
+			Seq ch = zipNode.children();
+			Iterable<IZipNode> nodes = (ch instanceof IndexedSeq)? Arrays.asList(((IndexedSeq)ch).patches()) : ch;
+			for (IZipNode n : nodes) {
+				if (n instanceof ZipNode<?> && ((ZipNode<?>)n).isModified()) {
+					stack.push((ZipNode<?>)n);
+				}
+			}
+		}
+		return Children.<T>source(node);
+	}
+	
+	/**
+	 * Parallel <tt>unzip()</tt> in the common fork/join pool.
+	 * 
+	 * @see #parallelUnzip(Loc, ForkJoinPool)
+	 */
+	public static <T extends IZipNode> T parallelUnzip(final Loc<T> location) {
+		return parallelUnzip(location, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Parallel <tt>unzip()</tt>, modified subtrees are unzipped 
+	 * concurrently, split at the children of the ZipNodes. 
+	 * Every source node must occur only once in the tree.
+	 * 
+	 * @param <T> concrete note type
+	 * @param location a location in the tree
+	 * @param pool fork/join pool
+	 * @return the unzipped tree
+	 */
+	public static <T extends IZipNode> T parallelUnzip(final Loc<T> location, final ForkJoinPool pool) {
+		if (pool == null) throw new IllegalArgumentException("Pool is null!");
+		ZipNode<T> root = location.root().node();
+		pool.invoke(new UnzipTask(Seq.of(new IZipNode[] { root }, 0, 1), 0, 1, DEFAULT_PARALLEL_THRESHOLD, 0));
+		return root._source();
+	}
+	
+	/**
+	 * Non-destructive alternative to <tt>unzip()</tt>, creates
+	 * the tree for <tt>location</tt> without changing the source
+	 * nodes. Every node with changes below it is copied using the
+	 * <tt>factory</tt>, unchanged subtrees are shared by reference.
+	 * Different locations of the same tree can be rebuilt
+	 * independently, also while other threads read the source tree.
+	 * 
+	 * @param <T> concrete note type
+	 * @param location a location in the tree
+	 * @param factory node factory
+	 * @return the root of the new tree, the source root if nothing changed
+	 */
+	public static <T extends IZipNode> T rebuild(final Loc<T> location, final INodeFactory<T> factory) {
+		if (factory == null) throw new IllegalArgumentException("Factory is null!");
+		return Zipper.<T>rebuild(location.root().node(), factory);
+	}
+	
+	/**
+	 * Iterative post-order <tt>rebuild</tt> of all modified nodes.
+	 * A new node is created only if the rebuilt children differ 
+	 * from the source children.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends IZipNode> T rebuild(final IZipNode node, final INodeFactory<T> factory) {
+		if (!isModifiedBranch(node)) {
+			return Children.<T>source(node);
+		}
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame((ZipNode<?>)node));
+		while (true) {
+			Frame f = stack.peek();
+			if (f.next < f.results.length) {
+				IZipNode n = f.children.get(f.next);
+				if (isModifiedBranch(n)) {
+					stack.push(new Frame((ZipNode<?>)n));
+				} else {
+					f.results[f.next++] = Children.source(n);
+				}
+				continue;
+			}
+			stack.pop();
+			T source = (T)f.node._source();
+			List<T> children = Arrays.asList((T[])f.results);
+			T rebuilt = sameNodes(source.getChildren(), children)? source : 
+				factory.create(source, Collections.unmodifiableList(children));
+			if (stack.isEmpty()) {
+				return rebuilt;
+			}
+			Frame parent = stack.peek();
+			parent.results[parent.next++] = rebuilt;
+		}
+	}
+	
+	/**
+	 * @return true if <tt>node</tt> is a modified ZipNode with children
+	 */
+	private static boolean isModifiedBranch(final IZipNode node) {
+		return node instanceof ZipNode<?> && ((ZipNode<?>)node).isModified() && !((ZipNode<?>)node).isLeaf();
+	}
+	
+	/**
+	 * @return true if <tt>source</tt> contains the same node instances as <tt>nodes</tt>
+	 */
+	private static boolean sameNodes(final Collection<? extends IZipNode> source, final List<? extends IZipNode> nodes) {
+		if (source == null || source.size() != nodes.size()) {
+			return false;
+		}
+		Iterator<? extends IZipNode> iter = nodes.iterator();
+		for (IZipNode n : source) {
+			if (n != iter.next()) {
+				return false;
 			}
-			return source;
-		} else {
-			return (T) node;
 		}
+		return true;
 	}
 	
 	/**
@@ -71,11 +275,275 @@ public final class Zipper {
 	 *         is a ZipNode
 	 */
 	public static <T extends IZipNode> Loc<T> unfold(final Loc<T> node) {
-		Loc<T> l = node.root();
-		while (!l.isEnd()) {
-			l = l.next();
+		return new Loc<T>(unfold(node.root().node()), Context.TOP);
+	}
+	
+	/**
+	 * Parallel <tt>unfold()</tt> in the common fork/join pool.
+	 * 
+	 * @see #parallelUnfold(Loc, ForkJoinPool)
+	 */
+	public static <T extends IZipNode> Loc<T> parallelUnfold(final Loc<T> node) {
+		return parallelUnfold(node, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Parallel <tt>unfold()</tt>, subtrees are unfolded concurrently,
+	 * split at the children of the ZipNodes. <tt>getChildren()</tt>
+	 * of the source nodes must be safe for concurrent reads.
+	 * 
+	 * @param <T>
+	 * @param node
+	 * @param pool fork/join pool
+	 * @return location to a root node where every tree node
+	 *         is a ZipNode
+	 */
+	public static <T extends IZipNode> Loc<T> parallelUnfold(final Loc<T> node, final ForkJoinPool pool) {
+		if (pool == null) throw new IllegalArgumentException("Pool is null!");
+		ZipNode<T> root = node.root().node();
+		IZipNode[] unfolded = new IZipNode[1];
+		pool.invoke(new UnfoldTask<T>(root, Seq.of(new IZipNode[] { root }, 0, 1), unfolded, 0, 1, DEFAULT_PARALLEL_THRESHOLD, 0));
+		return new Loc<T>(root.wrap(unfolded[0]), Context.TOP);
+	}
+	
+	/**
+	 * Iterative post-order <tt>unfold</tt> of all nodes. 
+	 * The children of every new ZipNode are the unfolded 
+	 * children of the original node, the modified state 
+	 * is retained.
+	 */
+	private static <T extends IZipNode> ZipNode<T> unfold(final ZipNode<T> node) {
+		if (node.isLeaf()) {
+			return node;
+		}
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(node));
+		while (true) {
+			Frame f = stack.peek();
+			if (f.next < f.results.length) {
+				ZipNode<?> n = f.node.wrap(f.children.get(f.next));
+				if (n.isLeaf()) {
+					f.results[f.next++] = n;
+				} else {
+					stack.push(new Frame(n));
+				}
+				continue;
+			}
+			stack.pop();
+			ZipNode<?> unfolded = unfolded(f.node, f.results);
+			if (stack.isEmpty()) {
+				return node.wrap(unfolded);
+			}
+			Frame parent = stack.peek();
+			parent.results[parent.next++] = unfolded;
+		}
+	}
+	
+	/**
+	 * @return copy of <tt>node</tt> with the <tt>unfolded</tt> children
+	 */
+	private static <T extends IZipNode> ZipNode<T> unfolded(final ZipNode<T> node, final IZipNode[] unfolded) {
+		return new ZipNode<T>(node._source(), node.options().toSeq(unfolded), node.options(), 
+				node.isModified(), node.isChildrenModified());
+	}
+	
+	/**
+	 * Folds the subtree of <tt>location</tt> bottom-up. Nodes
+	 * without children are mapped by <tt>leaf</tt>, every other
+	 * node is combined with the results of its children, in
+	 * children order. The fold reads the children directly and
+	 * does not create locations, the tree depth is not limited
+	 * by the thread stack size.
+	 * <pre>
+	 *   int size = Zipper.fold(loc, n -&gt; 1, (n, ch) -&gt; 1 + ch.stream().mapToInt(i -&gt; i).sum());
+	 * </pre>
+	 * 
+	 * @param <T> concrete node type
+	 * @param <R> result type
+	 * @param location root of the fold
+	 * @param leaf leaf function
+	 * @param combine combine function for a node and the results of its children
+	 * @return fold result for the node of <tt>location</tt>
+	 */
+	public static <T extends IZipNode, R> R fold(final Loc<T> location, final Function<? super T, ? extends R> leaf,
+			final BiFunction<? super T, List<R>, ? extends R> combine) {
+		return new Fold<T, R>(leaf, combine).fold(location.node());
+	}
+	
+	/**
+	 * Parallel <tt>fold()</tt> in the common fork/join pool
+	 * using the default threshold.
+	 * 
+	 * @see #parallelFold(Loc, Function, BiFunction, ForkJoinPool, int)
+	 */
+	public static <T extends IZipNode, R> R parallelFold(final Loc<T> location, final Function<? super T, ? extends R> leaf,
+			final BiFunction<? super T, List<R>, ? extends R> combine) {
+		return parallelFold(location, leaf, combine, ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+	}
+	
+	/**
+	 * Parallel <tt>fold()</tt>. The children of a node are split
+	 * into halves and forked while the current worker has no more
+	 * than <tt>threshold</tt> surplus queued tasks, otherwise the
+	 * children are folded sequentially in the current task. Small
+	 * thresholds (1 to 3) adapt well to unbalanced trees, <tt>0</tt>
+	 * forks least. <tt>leaf</tt> and <tt>combine</tt> must be
+	 * thread safe.
+	 * 
+	 * @param <T> concrete node type
+	 * @param <R> result type
+	 * @param location root of the fold
+	 * @param leaf leaf function
+	 * @param combine combine function for a node and the results of its children
+	 * @param pool fork/join pool
+	 * @param threshold surplus queued task threshold, &gt;= 0
+	 * @return fold result for the node of <tt>location</tt>
+	 */
+	public static <T extends IZipNode, R> R parallelFold(final Loc<T> location, final Function<? super T, ? extends R> leaf,
+			final BiFunction<? super T, List<R>, ? extends R> combine, final ForkJoinPool pool, final int threshold) {
+		if (pool == null) throw new IllegalArgumentException("Pool is null!");
+		if (threshold < 0) throw new IllegalArgumentException("Negative threshold!");
+		return pool.invoke(new Fold<T, R>(leaf, combine).task(location.node(), threshold));
+	}
+	
+	/**
+	 * Returns the changes from the subtree of <tt>a</tt> to
+	 * the subtree of <tt>b</tt>, use <tt>root()</tt> locations
+	 * to compare whole trees. Subtrees shared by both versions
+	 * are skipped, for two versions of the same zipped tree the
+	 * cost depends on the number of changed nodes and their 
+	 * siblings, not the tree size. Nodes are identified by their
+	 * source nodes, a changed node is reported by the changes 
+	 * below it. The stream is lazy.
+	 * 
+	 * @param <T> concrete node type
+	 * @param a old version
+	 * @param b new version
+	 * @return stream of changes, parents before children
+	 */
+	public static <T extends IZipNode> Stream<Change<T>> diff(final Loc<T> a, final Loc<T> b) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Diff<T>(a.node(), b.node()), 
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Unzips a range of children of a ZipNode, see <tt>parallelUnzip()</tt>.
+	 */
+	private static final class UnzipTask extends ChildRangeTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Seq children;
+		
+		protected UnzipTask(final Seq children, final int from, final int to, final int threshold, final int depth) {
+			super(from, to, threshold, depth);
+			this.children = children;
+		}
+		
+		@Override
+		protected ChildRangeTask range(final int from, final int to) {
+			return new UnzipTask(children, from, to, threshold, depth);
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void child(final int index) {
+			IZipNode node = children.get(index);
+			if (!(node instanceof ZipNode<?>)) {
+				return;
+			}
+			ZipNode<IZipNode> zipNode = (ZipNode<IZipNode>)node;
+			if (!zipNode.isModified() || zipNode.isLeaf()) {
+				return;
+			}
+			if (depth + 1 >= MAX_INLINE_DEPTH) {
+				unzip(zipNode);
+				return;
+			}
+			Seq ch = zipNode.children();
+			if (zipNode.isChildrenModified()) {
+				Collection<IZipNode> sch = (Collection<IZipNode>)zipNode._source().getChildren();
+				sch.clear();
+				for (IZipNode n : ch) {
+					sch.add(Children.source(n));
+				}
+			}
+			// Only patched children of indexed nodes can be modified
+			if (ch instanceof IndexedSeq) {
+				IZipNode[] patches = ((IndexedSeq)ch).patches();
+				ch = Seq.of(patches, 0, patches.length);
+			}
+			new UnzipTask(ch, 0, ch.size(), threshold, depth + 1).compute();
+		}
+		
+	}
+	
+	/**
+	 * Unfolds a range of children of a ZipNode into an array,
+	 * see <tt>parallelUnfold()</tt>.
+	 */
+	private static final class UnfoldTask<T extends IZipNode> extends ChildRangeTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final ZipNode<T> parent;
+		
+		private final Seq children;
+		
+		private final IZipNode[] unfolded;
+		
+		protected UnfoldTask(final ZipNode<T> parent, final Seq children, final IZipNode[] unfolded,
+				final int from, final int to, final int threshold, final int depth) {
+			super(from, to, threshold, depth);
+			this.parent = parent;
+			this.children = children;
+			this.unfolded = unfolded;
+		}
+		
+		@Override
+		protected ChildRangeTask range(final int from, final int to) {
+			return new UnfoldTask<T>(parent, children, unfolded, from, to, threshold, depth);
+		}
+		
+		@Override
+		protected void child(final int index) {
+			ZipNode<T> node = parent.wrap(children.get(index));
+			if (node.isLeaf()) {
+				unfolded[index] = node;
+			} else if (depth + 1 >= MAX_INLINE_DEPTH) {
+				unfolded[index] = unfold(node);
+			} else {
+				Seq ch = node.children();
+				IZipNode[] nodes = new IZipNode[ch.size()];
+				new UnfoldTask<T>(node, ch, nodes, 0, nodes.length, threshold, depth + 1).compute();
+				unfolded[index] = unfolded(node, nodes);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Stack frame of the iterative post-order functions.
+	 */
+	private static final class Frame {
+		
+		private final ZipNode<?> node;
+		
+		private final Seq children;
+		
+		// Results for the children
+		private final IZipNode[] results;
+		
+		// Index of the next child
+		private int next;
+		
+		protected Frame(final ZipNode<?> node) {
+			super();
+			this.node = node;
+			this.children = node.children();
+			this.results = new IZipNode[children.size()];
 		}
-		return l.root();
+		
 	}
 	
 }
@@ -0,0 +1,204 @@
+package com.mu.zipper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * A shared, thread safe reference to the current version of
+ * a zipped tree. Reads are wait-free, <tt>get()</tt> returns an
+ * immutable snapshot. Updates are lock-free, an edit function
+ * is applied to the current version and the result is stored
+ * with compare-and-set, see <tt>swap()</tt>.
+ *
+ * Concurrent edits of disjoint subtrees can be merged instead of
+ * repeating the edit, see <tt>swapMerged()</tt>. The versions are
+ * merged by node identity, nodes changed by only one of both
+ * edits are taken from that edit.
+ *
+ * The source nodes must not be changed while the tree is shared,
+ * use <tt>Zipper.rebuild()</tt> to retrieve a version.
+ *
+ * @author Adam Smyczek
+ *
+ * @param <T> concrete IZipNode type
+ */
+public final class ZipperRef<T extends IZipNode> {
+
+	// Marks a merge conflict
+	private static final Object CONFLICT = new Object();
+
+	// The root location of the current version
+	private final AtomicReference<Loc<T>> current;
+
+	/**
+	 * @param location initial version, any location of the tree
+	 */
+	public ZipperRef(final Loc<T> location) {
+		super();
+		if (location == null) throw new IllegalArgumentException("Location is null!");
+		this.current = new AtomicReference<Loc<T>>(location.root());
+	}
+
+	/**
+	 * @return root location of the current version
+	 */
+	public Loc<T> get() {
+		return current.get();
+	}
+
+	/**
+	 * Sets the current version to <tt>update</tt> if the
+	 * current version is <tt>expect</tt>.
+	 *
+	 * @param expect expected root location, see <tt>get()</tt>
+	 * @param update new version, any location of the tree
+	 * @return true if successful
+	 */
+	public boolean compareAndSet(final Loc<T> expect, final Loc<T> update) {
+		return current.compareAndSet(expect, update.root());
+	}
+
+	/**
+	 * Applies <tt>edit</tt> to the current version and stores
+	 * the result. The edit is repeated on the new current version
+	 * if another thread stored a version in the meantime, it must
+	 * not have side effects.
+	 *
+	 * @param edit edit function, returns any location of the edited tree
+	 * @return root location of the stored version
+	 */
+	public Loc<T> swap(final Function<? super Loc<T>, ? extends Loc<T>> edit) {
+		while (true) {
+			Loc<T> base = current.get();
+			Loc<T> update = edit.apply(base).root();
+			if (current.compareAndSet(base, update)) {
+				return update;
+			}
+		}
+	}
+
+	/**
+	 * Same as <tt>swap()</tt>, but if another thread stored a
+	 * version in the meantime, the edit is merged into the new
+	 * current version. The edit is repeated only on conflicts,
+	 * if both versions changed the same nodes or the children
+	 * of the same node were inserted or removed.
+	 *
+	 * @param edit edit function, returns any location of the edited tree
+	 * @return root location of the stored version
+	 */
+	public Loc<T> swapMerged(final Function<? super Loc<T>, ? extends Loc<T>> edit) {
+		Loc<T> base = current.get();
+		Loc<T> update = edit.apply(base).root();
+		while (!current.compareAndSet(base, update)) {
+			Loc<T> latest = current.get();
+			IZipNode merged = merge(base.node(), latest.node(), update.node());
+			if (merged != null) {
+				update = new Loc<T>(latest.node().wrap(merged), Context.TOP);
+			} else {
+				update = edit.apply(latest).root();
+			}
+			base = latest;
+		}
+		return update;
+	}
+
+	// ---- Helper functions ----
+
+	/**
+	 * Three-way merge of two versions of <tt>base</tt>, with
+	 * an explicit stack.
+	 *
+	 * @return merged node or null on conflicts
+	 */
+	@SuppressWarnings("unchecked")
+	private IZipNode merge(final IZipNode base, final IZipNode theirs, final IZipNode mine) {
+		Object r = resolve(base, theirs, mine);
+		if (r != null) {
+			return (r == CONFLICT)? null : (IZipNode)r;
+		}
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(base, theirs, mine));
+		while (true) {
+			Frame f = stack.peek();
+			if (f.next < f.results.length) {
+				int i = f.next;
+				IZipNode b = Children.get(f.base, i);
+				IZipNode t = Children.get(f.theirs, i);
+				IZipNode m = Children.get(f.mine, i);
+				r = resolve(b, t, m);
+				if (r == CONFLICT) {
+					return null;
+				} else if (r != null) {
+					f.results[f.next++] = (IZipNode)r;
+				} else {
+					stack.push(new Frame(b, t, m));
+				}
+			} else {
+				stack.pop();
+				ZipNode<T> node = (ZipNode<T>)f.node;
+				ZipNode<T> merged = new ZipNode<T>(node._source(), node.options().toSeq(f.results), node.options());
+				if (stack.isEmpty()) {
+					return merged;
+				}
+				Frame p = stack.peek();
+				p.results[p.next++] = merged;
+			}
+		}
+	}
+
+	/**
+	 * @return the merged node if only one version changed
+	 *         the node, <tt>CONFLICT</tt> if the children
+	 *         can not be merged, null to merge the children
+	 */
+	private static Object resolve(final IZipNode base, final IZipNode theirs, final IZipNode mine) {
+		if (Diff.same(base, mine) || Diff.same(theirs, mine)) {
+			return theirs;
+		} else if (Diff.same(base, theirs)) {
+			return mine;
+		}
+		if (!(theirs instanceof ZipNode<?>) || Children.source(base) != Children.source(theirs)
+				|| Children.source(base) != Children.source(mine)) {
+			return CONFLICT;
+		}
+		Object b = Children.of(base);
+		Object t = Children.of(theirs);
+		Object m = Children.of(mine);
+		if (b == null || t == null || m == null || Children.size(b) != Children.size(t) || Children.size(b) != Children.size(m)) {
+			return CONFLICT;
+		}
+		return null;
+	}
+
+	/**
+	 * A node on the merge stack.
+	 */
+	private static final class Frame {
+
+		// Their node, the merged node keeps its options
+		private final IZipNode node;
+
+		private final Object base;
+
+		private final Object theirs;
+
+		private final Object mine;
+
+		private final IZipNode[] results;
+
+		private int next = 0;
+
+		private Frame(final IZipNode base, final IZipNode theirs, final IZipNode mine) {
+			super();
+			this.node = theirs;
+			this.base = Children.of(base);
+			this.theirs = Children.of(theirs);
+			this.mine = Children.of(mine);
+			this.results = new IZipNode[Children.size(this.base)];
+		}
+
+	}
+
+}
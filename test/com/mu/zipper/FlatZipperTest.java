@@ -0,0 +1,158 @@
+package com.mu.zipper;
+
+import static com.mu.zipper.FlatZipper.NONE;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlatZipperTest extends TestCase {
+
+	// Tree arrays, same tree as in ZipperTest:
+	// root(0) -> a1(1) -> b1(2), b2(3)
+	//         -> a2(4) -> c1(5), c2(6)
+	//         -> a3(7)
+	private int[] firstChild;
+	private int[] nextSibling;
+	private int[] parent;
+	private int[] payload;
+
+	private FlatZipper zipper = null;
+
+	@Override
+	@Before
+	protected void setUp() throws Exception {
+		super.setUp();
+		firstChild  = new int[] { 1, 2, NONE, NONE, 5, NONE, NONE, NONE };
+		nextSibling = new int[] { NONE, 4, 3, NONE, 7, 6, NONE, NONE };
+		parent      = new int[] { NONE, 0, 1, 1, 0, 4, 4, 0 };
+		payload     = new int[] { 0, 10, 20, 30, 40, 50, 60, 70 };
+		zipper = new FlatZipper(firstChild, nextSibling, parent, payload);
+	}
+
+	@Test
+	public void testValidMoves() {
+		FlatLoc l = zipper.loc();
+		assertEquals(0, l.node());
+		assertEquals(1, l.down().node());
+		assertEquals(4, l.right().node());
+		assertEquals(1, l.left().node());
+		assertEquals(0, l.up().node());
+		assertEquals(7, l.down(2).node());
+		assertEquals(40, l.left().payload());
+		assertEquals(6, l.down(1).node());
+		assertEquals(2, l.depth());
+		assertEquals(0, l.root().depth());
+
+		try {
+			zipper.loc().down(3);
+			fail("Index out of bound");
+		} catch (ZipperException e) {
+			// Expected
+		}
+		try {
+			zipper.loc().up();
+			fail("Top node");
+		} catch (ZipperException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testPredicates() {
+		FlatLoc l = zipper.loc();
+		assertTrue(l.isTop());
+		assertTrue(l.down().isFirst());
+		assertFalse(l.isLast());
+		assertTrue(l.down().isLeaf());
+		assertFalse(l.isEnd());
+		assertTrue(l.root().down(2).isLast());
+		assertTrue(l.isEnd());
+		assertTrue(l.moveTo(6).isLast());
+		assertFalse(l.isEnd());
+	}
+
+	@Test
+	public void testTraversal() {
+		assertEquals("0 10 20 30 40 50 60 70", render(zipper));
+	}
+
+	@Test
+	public void testEdits() {
+		FlatLoc l = zipper.loc().down(1);
+		l.insertLeft(100).insertRight(101).add(102).down().setPayload(52).right().right().add(103);
+		assertEquals("0 10 20 30 100 40 52 60 102 103 101 70", render(zipper));
+		assertEquals(10, zipper.size() - 2);
+
+		FlatLoc a1 = zipper.loc().down();
+		assertEquals(0, a1.copy().down().remove().remove().node());
+		assertEquals("0 100 40 52 60 102 103 101 70", render(zipper));
+		assertEquals(100, zipper.loc().down().payload());
+		assertTrue(zipper.loc().down().isFirst());
+
+		FlatLoc a3 = zipper.loc().down(3);
+		assertEquals(70, a3.payload());
+		assertEquals(101, a3.left().payload());
+		a3.right().remove().down(2).insertRight(104).right();
+		assertTrue(a3.isEnd());
+		assertEquals("0 100 40 52 60 102 103 101 104", render(zipper));
+
+		// The tree arrays are not modified
+		assertEquals("0 10 20 30 40 50 60 70", render(new FlatZipper(firstChild, nextSibling, parent, payload)));
+	}
+
+	@Test
+	public void testWideAndDeep() {
+		int size = 1 + 1000 * 999;
+		int[] first = new int[size];
+		int[] next = new int[size];
+		int[] par = new int[size];
+		int[] pay = new int[size];
+		Arrays.fill(first, NONE);
+		Arrays.fill(next, NONE);
+		// Root with 1000 children, each a chain of 999 nodes
+		par[0] = NONE;
+		for (int c = 0; c < 1000; c++) {
+			int head = 1 + c * 999;
+			par[head] = 0;
+			if (c == 0) {
+				first[0] = head;
+			} else {
+				next[head - 999] = head;
+			}
+			for (int k = 1; k < 999; k++) {
+				par[head + k] = head + k - 1;
+				first[head + k - 1] = head + k;
+			}
+		}
+		FlatZipper z = new FlatZipper(first, next, par, pay);
+		FlatLoc l = z.loc();
+		int count = 1;
+		while (!l.isEnd()) {
+			l.next();
+			count++;
+		}
+		assertEquals(size, count);
+		assertEquals(size - 1, l.node());
+		assertEquals(999, l.depth());
+		assertEquals(999 * 999 + 1, z.loc().down(999).node());
+		assertEquals(998 * 999 + 1, l.root().down(999).left().node());
+	}
+
+	/**
+	 * @return payloads in depth-first order
+	 */
+	private String render(final FlatZipper z) {
+		StringBuilder buf = new StringBuilder();
+		FlatLoc l = z.loc();
+		buf.append(l.payload());
+		while (!l.isEnd()) {
+			buf.append(' ').append(l.next().payload());
+		}
+		return buf.toString();
+	}
+
+}
@@ -1,10 +1,39 @@
 package com.mu.zipper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import junit.framework.TestCase;
 
@@ -195,6 +224,87 @@ public class ZipperTest extends TestCase {
 		
 	}
 	
+	@Test
+	public void testNodePath() {
+		Loc<Node> c2 = root.down(1).down(1);
+		assertEquals(0, root.depth());
+		assertEquals(2, c2.depth());
+		List<ZipNode<Node>> path = new ArrayList<ZipNode<Node>>(c2.nodePath());
+		assertEquals("[root, a2, c2]", path.toString());
+		assertSame(root.node(), path.get(0));
+		assertSame(c2.node(), path.get(2));
+		assertEquals(3, c2.left().nodePath().size());
+		assertEquals(1, root.nodePath().size());
+
+		// Ancestors are read from the context, deep paths are linear
+		Node deep = new Node("leaf", true);
+		for (int i = 0; i < 100000; i++) {
+			deep = new Node(Integer.toString(i), deep);
+		}
+		Loc<Node> l = Zipper.zip(deep);
+		while (l.hasChildren()) {
+			l = l.down();
+		}
+		assertEquals(100000, l.depth());
+		Collection<ZipNode<Node>> deepPath = l.nodePath();
+		assertEquals(100001, deepPath.size());
+		int i = 0;
+		for (ZipNode<Node> n : deepPath) {
+			assertEquals((i == 100000)? "leaf" : Integer.toString(99999 - i), n.toString());
+			i++;
+		}
+	}
+	
+	@Test
+	public void testIndexPath() throws Exception {
+		Loc<Node> c2 = root.down(1).down(1);
+		assertTrue(Arrays.equals(new int[] { 1, 1 }, c2.indexPath()));
+		assertEquals(0, root.indexPath().length);
+		assertEquals("c2", nodeName(root.locate(1, 1)));
+		assertEquals("c2", nodeName(root.down(2).locate(c2.indexPath())));
+
+		// Index paths reflect edits
+		Loc<Node> c3 = c2.insertLeft(new Node("c3", true));
+		assertTrue(Arrays.equals(new int[] { 1, 2 }, c3.indexPath()));
+		assertEquals("c2", nodeName(c3.locate(1, 2)));
+
+		// Compact paths
+		IndexPath p = IndexPath.of(0, 127, 128, 90000, Integer.MAX_VALUE);
+		assertEquals(5, p.depth());
+		assertEquals(1 + 1 + 2 + 3 + 5, p.toBytes().length);
+		assertTrue(Arrays.equals(new int[] { 0, 127, 128, 90000, Integer.MAX_VALUE }, p.toArray()));
+		assertEquals(p, IndexPath.fromBytes(p.toBytes()));
+		assertEquals(IndexPath.ROOT, IndexPath.of());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new ObjectOutputStream(out).writeObject(p);
+		Object read = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject();
+		assertEquals(p, read);
+		assertEquals(IndexPath.of(128, 0), IndexPath.fromBytes(new byte[] { (byte)0x80, 1, 0 }));
+		byte[][] invalid = new byte[][] {
+			{ (byte)0x80 },
+			{ (byte)0x80, 0 },
+			{ 1, (byte)0x81, (byte)0x80, 0 }
+		};
+		for (byte[] b : invalid) {
+			try {
+				IndexPath.fromBytes(b);
+				fail("Invalid path " + Arrays.toString(b));
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+
+		// Wide nodes, path() and location() move down to the index directly
+		Node[] wide = new Node[100000];
+		for (int i = 0; i < wide.length; i++) {
+			wide[i] = new Node(Integer.toString(i), true);
+		}
+		Loc<Node> w = Zipper.zip(new Node("wide", wide)).down(90000);
+		assertEquals(IndexPath.of(90000), IndexPath.of(w.indexPath()));
+		assertEquals("90000", nodeName(w.locate(IndexPath.of(90000))));
+		assertEquals("90000", nodeName(w.location(w.path())));
+	}
+	
 	@Test
 	public void testReplace() {
 		Loc<Node> a2 = root.next().right();
@@ -216,6 +326,299 @@ public class ZipperTest extends TestCase {
 		assertEquals("b2", nodeName(rep2.down().next()));
 	}
 	
+	@Test
+	public void testWideSiblingScan() {
+		int width = 200000;
+		Node[] children = new Node[width];
+		for (int i = 0; i < width; i++) {
+			children[i] = new Node("n" + i, true);
+		}
+		Loc<Node> l = Zipper.zip(new Node("wide", children)).down();
+
+		// Full scan to the right and back, linear in the number of siblings
+		for (int i = 1; i < width; i++) {
+			l = l.right();
+		}
+		assertTrue(l.isLast());
+		assertEquals("n" + (width - 1), nodeName(l));
+		l = l.leftMost();
+		assertTrue(l.isFirst());
+		assertEquals("n0", nodeName(l));
+
+		// Siblings are restored in order on up()
+		Loc<Node> up = l.rightMost().left().insertRight(new Node("x", true)).up();
+		assertEquals(width + 1, up.node().getChildren().size());
+		assertEquals("n" + (width - 2), nodeName(up.down(width - 2)));
+		assertEquals("x", nodeName(up.down(width - 1)));
+		assertEquals("n" + (width - 1), nodeName(up.down(width)));
+	}
+
+	@Test
+	public void testTreeStorage() {
+		int width = 100000;
+		Node[] children = new Node[width];
+		for (int i = 0; i < width; i++) {
+			children[i] = new Node("n" + i, true);
+		}
+		ZipOptions options = ZipOptions.DEFAULT.withStorage(ZipOptions.Storage.TREE);
+		Loc<Node> r = Zipper.zip(new Node("wide", children), options);
+
+		// Random access and edits in the middle
+		assertEquals("n50000", nodeName(r.down(50000)));
+		Loc<Node> rem = r.removeChild(50000);
+		assertEquals(width - 1, rem.node().getChildren().size());
+		assertEquals("n50001", nodeName(rem.down(50000)));
+
+		Loc<Node> ins = r.down(40000).insertLeft(new Node("l", true)).insertRight(new Node("r", true)).up();
+		assertEquals(width + 2, ins.node().getChildren().size());
+		assertEquals("n39999", nodeName(ins.down(39999)));
+		assertEquals("l", nodeName(ins.down(40000)));
+		assertEquals("n40000", nodeName(ins.down(40001)));
+		assertEquals("r", nodeName(ins.down(40002)));
+		assertEquals("n40001", nodeName(ins.down(40003)));
+
+		Loc<Node> add = ins.add(new Node("a", true));
+		assertEquals("a", nodeName(add.down(width + 2)));
+		assertEquals("n39999", nodeName(add.down(40001).left().left()));
+
+		// Original location is unchanged
+		assertEquals(width, r.node().getChildren().size());
+		assertEquals("n40000", nodeName(r.down(40000)));
+
+		// Unzip writes the children in order
+		Node u = Zipper.unzip(rem);
+		assertEquals(width - 1, u.getChildren().size());
+		Iterator<Node> i = u.getChildren().iterator();
+		for (int j = 0; j < width; j++) {
+			if (j != 50000) {
+				assertEquals("n" + j, i.next().getName());
+			}
+		}
+	}
+
+	@Test
+	public void testUnchangedUp() {
+		// Read-only navigation returns the original nodes
+		assertSame(root.node(), root.down(1).down(1).up().up().node());
+		assertSame(root.node(), root.next().next().right().up().right().rightMost().root().node());
+		Loc<Node> a2 = root.down(1);
+		assertSame(a2.node(), a2.down().right().left().up().node());
+
+		// Edits rebuild the path only, siblings keep their identity
+		Loc<Node> edit = root.down(1).down(1).replace(new Node("x", true)).root();
+		assertNotSame(root.node(), edit.node());
+		assertTrue(edit.node().isModified());
+		List<? extends IZipNode> before = (List<? extends IZipNode>)root.node().getChildren();
+		List<? extends IZipNode> after = (List<? extends IZipNode>)edit.node().getChildren();
+		assertSame(before.get(0), after.get(0));
+		assertNotSame(before.get(1), after.get(1));
+		assertSame(before.get(2), after.get(2));
+
+		// Visited siblings keep their identity after a sibling edit
+		Loc<Node> ins = root.down().right().right().insertLeft(new Node("l", true)).up();
+		List<? extends IZipNode> inserted = (List<? extends IZipNode>)ins.node().getChildren();
+		assertEquals(4, inserted.size());
+		assertSame(before.get(0), inserted.get(0));
+		assertSame(before.get(1), inserted.get(1));
+		assertSame(before.get(2), inserted.get(3));
+	}
+
+	@Test
+	public void testUnfold() {
+		Loc<Node> u = Zipper.unfold(root.down(1).down().replace(new Node("x", true)));
+		for (IZipNode n : u.node().getChildren()) {
+			assertTrue(n instanceof ZipNode<?>);
+		}
+		assertEquals("x", nodeName(u.down(1).down()));
+		assertTrue(u.down(1).down().node().getChildren() == null);
+		assertSame(u.node(), u.down(1).down(1).root().node());
+	}
+
+	@Test
+	public void testTransient() {
+		// Same edits on a persistent and a transient location
+		Loc<Node> p = root.down(1);
+		TransientLoc<Node> t = root.down(1).asTransient();
+		for (int i = 0; i < 50000; i++) {
+			Node n = new Node("c" + i, true);
+			p = p.add(n);
+			t.add(n);
+		}
+		p = p.insertLeft(new Node("l1", true)).insertRight(new Node("r1", true)).removeChild(0)
+			.right().removeRight().insertLeft(new Node("l2", true)).left().left()
+			.down(2).remove().up().removeChild(1).down().replace(new Node("x", true));
+		t.insertLeft(new Node("l1", true)).insertRight(new Node("r1", true)).removeChild(0)
+			.right().removeRight().insertLeft(new Node("l2", true)).left().left()
+			.down(2).remove().up().removeChild(1).down().replace(new Node("x", true));
+		Loc<Node> tl = t.persistent();
+		assertEquals(printTree(p.root().node()), printTree(tl.root().node()));
+		assertEquals(printTree(p.node()), printTree(tl.node()));
+
+		// Original tree is unchanged
+		assertEquals("root:[a1:[b1, b2], a2:[c1, c2], a3]]", printTree(root.node()));
+
+		// Unchanged transient locations keep the original nodes
+		assertSame(root.node(), root.down(1).asTransient().down().right().up().up().persistent().node());
+
+		// Used after persistent()
+		try {
+			t.right();
+			fail();
+		} catch (ZipperException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTransientOwner() throws InterruptedException {
+		final TransientLoc<Node> t = root.asTransient();
+		final boolean[] failed = new boolean[1];
+		Thread other = new Thread(new Runnable() {
+			public void run() {
+				try {
+					t.down();
+				} catch (ZipperException e) {
+					failed[0] = true;
+				}
+			}
+		});
+		other.start();
+		other.join();
+		assertTrue(failed[0]);
+		assertEquals("a1", nodeName(t.down().persistent()));
+	}
+
+	@Test
+	public void testTreeWalker() {
+		final StringBuffer buf = new StringBuffer();
+		TreeWalker<Node> walker = new TreeWalker<Node>();
+		TreeWalker.Visitor<Node> visitor = new TreeWalker.Visitor<Node>() {
+			public TreeWalker.Visit enter(TreeWalker<Node> w, Node n) {
+				buf.append("+" + n.getName() + w.depth());
+				return n.getName().equals("a1")? TreeWalker.Visit.SKIP : TreeWalker.Visit.CONTINUE;
+			}
+			public void leave(TreeWalker<Node> w, Node n) {
+				buf.append("-" + n.getName());
+			}
+		};
+
+		// Edited tree, a1 subtree skipped
+		Loc<Node> edit = root.down(1).add(new Node("c3", true)).root();
+		assertTrue(walker.walk(edit, visitor));
+		assertEquals("+root0+a11-a1+a21+c12-c1+c22-c2+c32-c3-a2+a31-a3-root", buf.toString());
+
+		// Walker is reused, early exit and location of the current node
+		final List<Loc<Node>> found = new ArrayList<Loc<Node>>();
+		boolean completed = walker.walk(root, new TreeWalker.Visitor<Node>() {
+			public TreeWalker.Visit enter(TreeWalker<Node> w, Node n) {
+				if (n.getName().equals("c2")) {
+					found.add(w.loc());
+					return TreeWalker.Visit.STOP;
+				}
+				return TreeWalker.Visit.CONTINUE;
+			}
+			public void leave(TreeWalker<Node> w, Node n) {
+			}
+		});
+		assertFalse(completed);
+		assertEquals("c2", nodeName(found.get(0)));
+		assertEquals("c1", nodeName(found.get(0).left()));
+
+		// Stopped walk releases the path
+		assertEquals(0, walker.depth());
+		assertNull(walker.node());
+		assertTrue(walker.walk(root.down(1), visitor));
+	}
+
+	@Test
+	public void testStream() {
+		Loc<Node> edit = root.down(1).add(new Node("c3", true)).root();
+		StringBuffer buf = new StringBuffer();
+		for (Object n : edit.stream().toArray()) {
+			buf.append(n).append(' ');
+		}
+		assertEquals("root a1 b1 b2 a2 c1 c2 c3 a3 ", buf.toString());
+		assertEquals(3, root.down(1).stream().count());
+
+		// Parallel stream over a wide and deep tree, same nodes in same order
+		Node[] wide = new Node[500];
+		for (int i = 0; i < wide.length; i++) {
+			Node[] ch = new Node[200];
+			for (int j = 0; j < ch.length; j++) {
+				ch[j] = new Node(i + "." + j, new Node(i + "." + j + ".0", true));
+			}
+			wide[i] = new Node(Integer.toString(i), ch);
+		}
+		Loc<Node> big = Zipper.zip(new Node("big", wide)).down(7).remove();
+		List<Node> seq = big.stream().collect(Collectors.<Node>toList());
+		List<Node> par = big.parallelStream().collect(Collectors.<Node>toList());
+		assertEquals(1 + 499 * (1 + 200 * 2), seq.size());
+		assertEquals(seq, par);
+		assertEquals(499 * 200, big.parallelStream().filter(new Predicate<Node>() {
+			public boolean test(Node n) {
+				return n.getChildren() == null;
+			}
+		}).count());
+	}
+
+	@Test
+	public void testFold() {
+		Function<Node, String> leaf = new Function<Node, String>() {
+			public String apply(Node n) {
+				return n.toString();
+			}
+		};
+		BiFunction<Node, List<String>, String> combine = new BiFunction<Node, List<String>, String>() {
+			public String apply(Node n, List<String> ch) {
+				return n + ch.toString();
+			}
+		};
+		Loc<Node> edit = root.down(1).add(new Node("c3", true)).root();
+		assertEquals("root[a1[b1, b2], a2[c1, c2, c3], a3]", Zipper.fold(edit, leaf, combine));
+		assertEquals("a2[c1, c2]", Zipper.fold(root.down(1), leaf, combine));
+		assertEquals("root[a1[b1, b2], a2[c1, c2, c3], a3]", Zipper.parallelFold(edit, leaf, combine));
+
+		// Parallel fold over a wide tree, each threshold gives the same result
+		Node[] wide = new Node[300];
+		for (int i = 0; i < wide.length; i++) {
+			Node[] ch = new Node[100];
+			for (int j = 0; j < ch.length; j++) {
+				ch[j] = new Node(i + "." + j, new Node(i + "." + j + ".0", true));
+			}
+			wide[i] = new Node(Integer.toString(i), ch);
+		}
+		Loc<Node> big = Zipper.zip(new Node("big", wide)).down(7).remove();
+		Function<Node, Integer> one = new Function<Node, Integer>() {
+			public Integer apply(Node n) {
+				return 1;
+			}
+		};
+		BiFunction<Node, List<Integer>, Integer> sum = new BiFunction<Node, List<Integer>, Integer>() {
+			public Integer apply(Node n, List<Integer> ch) {
+				int s = 1;
+				for (Integer i : ch) {
+					s += i;
+				}
+				return s;
+			}
+		};
+		int size = 1 + 299 * (1 + 100 * 2);
+		assertEquals(size, Zipper.fold(big, one, sum).intValue());
+		assertEquals(size, Zipper.parallelFold(big, one, sum).intValue());
+		for (int t = 0; t < 4; t++) {
+			assertEquals(size, Zipper.parallelFold(big, one, sum, ForkJoinPool.commonPool(), t).intValue());
+		}
+		assertEquals(Zipper.fold(big, leaf, combine), Zipper.parallelFold(big, leaf, combine));
+
+		// Deep trees do not exhaust the thread stack
+		Node deep = new Node("leaf", true);
+		for (int i = 0; i < 100000; i++) {
+			deep = new Node(Integer.toString(i), deep);
+		}
+		assertEquals(100001, Zipper.fold(Zipper.zip(deep), one, sum).intValue());
+		assertEquals(100001, Zipper.parallelFold(Zipper.zip(deep), one, sum).intValue());
+	}
+
 	@Test
 	public void testUnzip() {
 		Loc<Node> a2 = root.next().right();
@@ -234,10 +637,836 @@ public class ZipperTest extends TestCase {
 		assertEquals("d2", di.next().getName());
 	}
 	
+	@Test
+	public void testDirtyUnzip() {
+		Node[] xs = new Node[3];
+		for (int i = 0; i < xs.length; i++) {
+			Node[] ys = new Node[3];
+			for (int j = 0; j < ys.length; j++) {
+				ys[j] = new Node("y" + i + j, new Node("z" + i + j, true));
+			}
+			xs[i] = new Node("x" + i, ys);
+		}
+		Node tree = new Node("r", xs);
+		Loc<Node> r = Zipper.zip(tree);
+
+		// Unchanged tree, nothing is rewritten
+		assertSame(tree, Zipper.unzip(r.down(1).down(2).root()));
+		assertEquals(0, clears(tree));
+
+		// Edit below x1, only y12 is rewritten, even after sibling moves
+		Loc<Node> edit = r.down(1).down(2).add(new Node("n", true)).up().right();
+		assertTrue(edit.up().node().isModified());
+		assertSame(tree, Zipper.unzip(edit));
+		assertEquals(1, clears(tree));
+		Node y12 = ((List<Node>)xs[1].getChildren()).get(2);
+		assertEquals(1, ((NodeList)y12.getChildren()).clears);
+		assertEquals("[z12, n]", y12.getChildren().toString());
+
+		// Structural edits rewrite the parent collection
+		Zipper.unzip(r.down(2).insertLeft(new Node("x", true)));
+		assertEquals(2, clears(tree));
+		assertEquals(1, ((NodeList)tree.getChildren()).clears);
+		assertEquals("[x0, x1, x, x2]", tree.getChildren().toString());
+	}
+	
+	@Test
+	public void testRebuild() {
+		INodeFactory<Node> factory = new INodeFactory<Node>() {
+			public Node create(Node source, List<Node> children) {
+				return new Node(source.getName(), children.toArray(new Node[children.size()]));
+			}
+		};
+		Node tree = root._source();
+		List<Node> as = new ArrayList<Node>(tree.getChildren());
+		assertSame(tree, Zipper.rebuild(root.down(1).down(), factory));
+
+		// Two divergent versions of the same tree
+		Node v1 = Zipper.rebuild(root.down(1).down().insertRight(new Node("c", true)), factory);
+		Node v2 = Zipper.rebuild(root.down(1).remove(), factory);
+		assertEquals("[a1, a2, a3]", tree.getChildren().toString());
+		assertEquals("[c1, c2]", as.get(1).getChildren().toString());
+		assertEquals(0, clears(tree));
+
+		List<Node> v1as = new ArrayList<Node>(v1.getChildren());
+		assertNotSame(tree, v1);
+		assertSame(as.get(0), v1as.get(0));
+		assertSame(as.get(2), v1as.get(2));
+		assertEquals("[c1, c, c2]", v1as.get(1).getChildren().toString());
+		assertEquals("[a1, a3]", v2.getChildren().toString());
+		assertSame(as.get(0), v2.getChildren().iterator().next());
+
+		// Path-only changes copy the path and share the siblings
+		Loc<Node> b1 = root.down().down().replaceSource(new Node("b", true));
+		Node v3 = Zipper.rebuild(b1.up().right(), factory);
+		List<Node> v3as = new ArrayList<Node>(v3.getChildren());
+		assertEquals("[b, b2]", v3as.get(0).getChildren().toString());
+		assertSame(as.get(1), v3as.get(1));
+		assertEquals("[b1, b2]", as.get(0).getChildren().toString());
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testParallelUnzip() {
+		Node[] trees = new Node[2];
+		Loc<Node>[] edits = (Loc<Node>[])new Loc<?>[2];
+		for (int t = 0; t < trees.length; t++) {
+			trees[t] = wideTree(200, 50);
+			Loc<Node> l = Zipper.zip(trees[t]);
+			for (int i = 0; i < 200; i += 3) {
+				l = l.down(i).down(i % 50).add(new Node("n" + i, true)).up().insertLeft(new Node("m" + i, true)).up();
+			}
+			edits[t] = l;
+		}
+		assertSame(trees[0], Zipper.unzip(edits[0]));
+		assertSame(trees[1], Zipper.parallelUnzip(edits[1]));
+		assertEquals(render(Zipper.zip(trees[0])), render(Zipper.zip(trees[1])));
+		assertEquals(render(edits[0]), render(Zipper.zip(trees[0])));
+
+		// Parallel unfold wraps every node
+		Loc<Node> unfolded = Zipper.parallelUnfold(Zipper.zip(wideTree(300, 20)).down(5).remove());
+		final int[] zipNodes = new int[1];
+		new TreeWalker<Node>().walk(unfolded, new TreeWalker.Visitor<Node>() {
+			public TreeWalker.Visit enter(TreeWalker<Node> w, Node n) {
+				if (w.node() instanceof ZipNode<?>) zipNodes[0]++;
+				return TreeWalker.Visit.CONTINUE;
+			}
+			public void leave(TreeWalker<Node> w, Node n) {}
+		});
+		assertEquals(1 + 299 * 21, zipNodes[0]);
+		assertEquals(render(Zipper.unfold(unfolded)), render(unfolded));
+	}
+	
+	@Test
+	public void testDeepTree() {
+		final int depth = 100000;
+		Node bottom = new Node("bottom", false);
+		Node tree = bottom;
+		for (int i = 0; i < depth; i++) {
+			tree = new Node("n", tree);
+		}
+
+		// Traversal
+		Loc<Node> l = Zipper.zip(tree);
+		assertFalse(l.isEnd());
+		while (l.hasChildren()) {
+			l = l.next();
+		}
+		assertEquals(depth, l.depth());
+		assertEquals(depth + 1, l.nodePath().size());
+		assertTrue(l.isEnd());
+		assertFalse(l.up().isEnd());
+		try {
+			l.next();
+			fail("End of traversal");
+		} catch (ZipperException e) {
+			// Expected
+		}
+		assertEquals(depth + 1, l.root().stream().count());
+		assertEquals(depth + 1, Zipper.parallelFold(l.root(), new Function<Node, Integer>() {
+			public Integer apply(Node n) {
+				return 1;
+			}
+		}, new BiFunction<Node, List<Integer>, Integer>() {
+			public Integer apply(Node n, List<Integer> ch) {
+				return ch.get(0) + 1;
+			}
+		}).intValue());
+
+		// Edits at the bottom
+		Loc<Node> edit = l.add(new Node("child", true));
+		Node rebuilt = Zipper.rebuild(edit, new INodeFactory<Node>() {
+			public Node create(Node source, List<Node> children) {
+				return new Node(source.getName(), children.toArray(new Node[children.size()]));
+			}
+		});
+		assertNotSame(tree, rebuilt);
+		assertEquals(0, bottom.getChildren().size());
+		Loc<Node> unfolded = Zipper.unfold(edit);
+		assertTrue(Zipper.parallelUnfold(edit).node().isModified());
+		assertSame(tree, Zipper.unzip(unfolded));
+		assertEquals("[child]", bottom.getChildren().toString());
+		assertSame(tree, Zipper.parallelUnzip(edit.clear()));
+		assertEquals(0, bottom.getChildren().size());
+	}
+	
+	@Test
+	public void testIndexedNode() {
+		IndexedNode wide = new IndexedNode("wide", 10000000);
+		Loc<IndexedNode> l = Zipper.zip(wide).down(5000000);
+		assertEquals("wide.5000000", l._source().toString());
+		assertEquals(256, wide.fetched);
+		assertTrue(l.isLeaf());
+		assertSame(l._source(), l.right().left()._source());
+		assertEquals(5000000, l.right().left().indexPath()[0]);
+
+		// Moves and replaced children keep the children indexed
+		Loc<IndexedNode> edit = l.replace(new IndexedNode("x", -1)).right().right()
+				.replace(new IndexedNode("y", -1)).up().down(0).replace(new IndexedNode("z", -1)).up();
+		assertEquals(10000000, edit.node().getChildren().size());
+		List<? extends IZipNode> ch = (List<? extends IZipNode>)edit.node().getChildren();
+		assertEquals("z", ((ZipNode<?>)ch.get(0))._source().toString());
+		assertEquals("wide.1", ch.get(1).toString());
+		assertEquals("x", ((ZipNode<?>)ch.get(5000000))._source().toString());
+		assertEquals("wide.5000001", ch.get(5000001).toString());
+		assertEquals("y", ((ZipNode<?>)ch.get(5000002))._source().toString());
+		assertEquals(256 * 2, wide.fetched);
+
+		// Other edits and traversals
+		IndexedNode small = new IndexedNode("small", 1000);
+		Loc<IndexedNode> s = Zipper.zip(small);
+		assertEquals(1001, s.stream().count());
+		s = s.down(10).insertLeft(new IndexedNode("i", -1)).up();
+		assertEquals(1001, s.node().getChildren().size());
+		assertEquals("i", ((List<? extends IZipNode>)s.node().getChildren()).get(10).toString());
+		assertSame(small, Zipper.unzip(s));
+		assertEquals("[small.8, small.9, i, small.10]", small.getChildren().subList(8, 12).toString());
+
+		// Unzip fetches only the patched children of indexed nodes
+		for (int t = 0; t < 2; t++) {
+			IndexedNode big = new IndexedNode("big", 1000000, 0);
+			Loc<IndexedNode> e = Zipper.zip(big).down(500000).add(new IndexedNode("e", -1)).up();
+			int fetched = big.fetched;
+			assertSame(big, (t == 0)? Zipper.unzip(e) : Zipper.parallelUnzip(e));
+			assertEquals(fetched, big.fetched);
+			assertEquals("[e]", ((List<?>)e.down(500000)._source().getChildren()).toString());
+		}
+	}
+	
+	@Test
+	public void testTreeStore() throws IOException {
+		Path file = Files.createTempFile("zipper", ".tree");
+		Path edited = Files.createTempFile("zipper", ".tree");
+		try {
+			TreeStore.write(root.down(), new Function<Node, byte[]>() {
+				public byte[] apply(Node n) {
+					return n.getName().getBytes(StandardCharsets.UTF_8);
+				}
+			}, file);
+			assertEquals(8, TreeStore.open(file).size());
+			
+			Loc<MappedNode> l = Zipper.zip(file);
+			assertEquals("root", name(l));
+			assertEquals("a2", name(l.down(1)));
+			assertEquals("c2", name(l.down(1).down(1)));
+			assertEquals("a1", name(l.down(1).down(1).up().left()));
+			assertTrue(l.down(0).down(0).isLeaf());
+			assertFalse(l.down(2).isLeaf());
+			assertFalse(l.down(2).hasChildren());
+			assertEquals(8, l.stream().count());
+			assertEquals(l.down(1)._source(), l._source().childAt(1));
+			assertFalse(l.down(1)._source().equals(Zipper.zip(file).down(1)._source()));
+			
+			// Edits are kept by the zipper and written to a new file
+			Loc<MappedNode> e = l.down(2).add(MappedNode.leaf("d1".getBytes(StandardCharsets.UTF_8)))
+					.left().down(0).replace(MappedNode.leaf("x".getBytes(StandardCharsets.UTF_8)));
+			TreeStore.write(e, new Function<MappedNode, byte[]>() {
+				public byte[] apply(MappedNode n) {
+					return n.payload();
+				}
+			}, edited);
+			Loc<MappedNode> r = Zipper.zip(edited);
+			assertEquals("x", name(r.down(1).down(0)));
+			assertEquals("d1", name(r.down(2).down(0)));
+			assertEquals(9, r.stream().count());
+			assertEquals("c1", name(Zipper.zip(file).down(1).down(0)));
+			
+			// Corrupt payload offsets of record 1, header 32 bytes, 8 records of 16 bytes
+			byte[] bytes = Files.readAllBytes(file);
+			long payloadSize = bytes.length - 32 - 8 * 16;
+			for (long offset : new long[] { payloadSize + 5, payloadSize + 1000, -1, Long.MAX_VALUE }) {
+				ByteBuffer.wrap(bytes).putLong(32 + 16 + 8, offset);
+				Files.write(edited, bytes);
+				Loc<MappedNode> c = Zipper.zip(edited);
+				for (Loc<MappedNode> n : Arrays.asList(c, c.down(0))) {
+					try {
+						n._source().payload();
+						fail("Corrupt offset " + offset);
+					} catch (ZipperException x) {
+						// Expected
+					}
+				}
+			}
+		} finally {
+			Files.delete(file);
+			Files.delete(edited);
+		}
+		
+		try {
+			Zipper.zip(Paths.get("build.xml"));
+			fail("Not a tree file");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testSnapshot() throws IOException {
+		INodeCodec<Node> codec = new INodeCodec<Node>() {
+			public byte[] encode(Node node) {
+				return node.getName().getBytes(StandardCharsets.UTF_8);
+			}
+			public Node decode(byte[] payload, List<Node> children) {
+				String name = new String(payload, StandardCharsets.UTF_8);
+				return new Node(name, (children == null)? null : children.toArray(new Node[children.size()]));
+			}
+		};
+		
+		// Edited tree with a shared subtree, the focus at c2
+		Node shared = new Node("s", new Node("s1", true), new Node("s2", false));
+		Loc<Node> l = root.down(0).replace(new Node("x", shared, shared)).right().down(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LocWriter<Node> writer = new LocWriter<Node>(Channels.newChannel(out), codec);
+		writer.write(l);
+		writer.write(root.down(2));
+		
+		LocReader<Node> reader = new LocReader<Node>(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), codec);
+		Loc<Node> r = reader.read();
+		assertEquals("c2", nodeName(r));
+		assertEquals("[1, 1]", Arrays.toString(r.indexPath()));
+		assertEquals(render(l.root()), render(r.root()));
+		assertSame(r.root().down(0).down(0)._source(), r.root().down(0).down(1)._source());
+		assertTrue(r.root().down(0).down(0).down(0).isLeaf());
+		assertFalse(r.root().down(0).down(0).down(1).isLeaf());
+		assertEquals("a3", nodeName(reader.read()));
+		
+		try {
+			reader.read();
+			fail("End of snapshots");
+		} catch (IOException e) {
+			// Expected
+		}
+
+		// Truncated and corrupt snapshots
+		byte[] bytes = out.toByteArray();
+		List<byte[]> corrupt = new ArrayList<byte[]>();
+		for (int i = 0; i < bytes.length / 2; i++) {
+			corrupt.add(Arrays.copyOf(bytes, i));
+		}
+		byte[] header = Arrays.copyOf(bytes, 5);
+		corrupt.add(concat(header, new byte[] { 0, 1, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07 }));
+		corrupt.add(concat(header, new byte[] { 0, 1, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F }));
+		corrupt.add(concat(header, new byte[] { 0, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F, 0 }));
+		corrupt.add(concat(header, new byte[] { 0, 1, 0, 2, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F }));
+		corrupt.add(concat(header, new byte[] { 0, 1, 0, 2, 100 }));
+		corrupt.add(concat(header, new byte[] { 1, 5, 2, 0 }));
+		for (byte[] c : corrupt) {
+			try {
+				new LocReader<Node>(Channels.newChannel(new ByteArrayInputStream(c)), codec).read();
+				fail("Corrupt snapshot " + Arrays.toString(c));
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+	
+	/**
+	 * @return <tt>a</tt> followed by <tt>b</tt>
+	 */
+	private byte[] concat(final byte[] a, final byte[] b) {
+		byte[] c = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+	
+	@Test
+	public void testInterned() {
+		IEquivalence<Node> names = new IEquivalence<Node>() {
+			public boolean equivalent(Node a, Node b) {
+				return a.getName().equals(b.getName());
+			}
+			public int hash(Node node) {
+				return node.getName().hashCode();
+			}
+		};
+		
+		// 1000 copies of the same subtree
+		Node[] copies = new Node[1000];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = new Node("a", new Node("b", new Node("c", true), new Node("d", false)), new Node("c", true));
+		}
+		Interner<Node> interner = new Interner<Node>(names);
+		Loc<Node> l = Zipper.zipInterned(new Node("root", copies), interner);
+		assertEquals(5, interner.size());
+		assertEquals(5, zipNodes(l.node(), Collections.newSetFromMap(new IdentityHashMap<IZipNode, Boolean>())));
+		assertSame(l.down(0).node(), l.down(999).node());
+		assertSame(l.down(0).down(1).node(), l.down(0).down(0).down(0).node());
+		assertEquals(5001, l.stream().count());
+		
+		// Edits are copy-on-write
+		Loc<Node> e = l.down(500).down(0).down(0).replace(new Node("x", true)).root();
+		assertEquals("a[b[c, d], c]", render(l.down(500)));
+		assertEquals("a[b[x, d], c]", render(e.down(500)));
+		assertEquals("a[b[c, d], c]", render(e.down(501)));
+		assertSame(l.down(0).node(), e.down(0).node());
+		
+		// Shared by trees of the same interner
+		Loc<Node> o = Zipper.zipInterned(new Node("other", copies[0]), interner);
+		assertSame(l.down(0).node(), o.down(0).node());
+		assertEquals(6, interner.size());
+	}
+	
+	@Test
+	public void testSubtreeHash() {
+		ZipOptions options = ZipOptions.DEFAULT.withHasher(new ToLongFunction<IZipNode>() {
+			public long applyAsLong(IZipNode n) {
+				return ((Node)n).getName().hashCode();
+			}
+		});
+		Loc<Node> l = Zipper.zip(Zipper.unzip(root), options);
+		Loc<Node> copy = Zipper.zip(new Node("root", new Node("a1", new Node("b1", true), new Node("b2", true)), 
+				new Node("a2", new Node("c1", true), new Node("c2", true)), new Node("a3", false)), options);
+		assertTrue(l.subtreeEquals(copy));
+		assertTrue(l.down(0).subtreeEquals(copy.down(0)));
+		assertFalse(l.down(0).subtreeEquals(copy.down(1)));
+		assertFalse(l.down(2).subtreeEquals(Zipper.zip(new Node("a3", true), options)));
+		
+		// Edits rehash the path to the root only
+		long a1 = l.down(0).node().subtreeHash();
+		Loc<Node> e = l.down(1).down(0).replace(new Node("x", true)).root();
+		assertEquals(0, e.node().cachedHash());
+		assertFalse(e.subtreeEquals(l));
+		assertEquals(a1, e.down(0).node().cachedHash());
+		assertTrue(e.down(1).replace(new Node("a2", new Node("c1", true), new Node("c2", true))).root().subtreeEquals(l));
+		assertTrue(e.down(1).down(0).replace(new Node("c1", true)).root().subtreeEquals(copy));
+		
+		try {
+			root.subtreeEquals(root.down());
+			fail("No hasher");
+		} catch (ZipperException ex) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testDiff() {
+		assertEquals(0, Zipper.diff(root, root.down().up()).count());
+		
+		Loc<Node> a2 = root.down(1);
+		Loc<Node> v = a2.down(0).replace(new Node("x", true)).up()
+				.insertLeft(new Node("i", true)).right().add(new Node("d1", true)).root();
+		assertEquals("[INSERT [1] i, REPLACE [1, 0] -> [2, 0] x, INSERT [3, 0] d1]", diff(root, v));
+		assertEquals("[DELETE [1] i, REPLACE [2, 0] -> [1, 0] c1, DELETE [3, 0] d1]", diff(v, root));
+		
+		// Removed and moved nodes
+		Node a1 = root.down(0)._source();
+		Loc<Node> m = root.down(0).remove().root().down(1).insertRight(a1).left().remove().root();
+		assertEquals("[a3, a1]", m.node().getChildren().toString());
+		assertEquals("[MOVE [2] -> [0] a3, DELETE [1] a2]", diff(root, m));
+		assertEquals("[a2, a3, a1]", root.down(0).remove().root().down(1).insertRight(a1).root().node().getChildren().toString());
+		assertEquals("[MOVE [0] -> [2] a1]", diff(root, root.down(0).remove().root().down(1).insertRight(a1).root()));
+		
+		// Wide and deep tree, only the changed path is compared
+		Node[] wide = new Node[100000];
+		for (int i = 0; i < wide.length; i++) {
+			wide[i] = new Node("w" + i, new Node("c" + i, true));
+		}
+		Loc<Node> w = Zipper.zip(new Node("wide", wide), ZipOptions.DEFAULT.withStorage(ZipOptions.Storage.TREE));
+		Loc<Node> we = w.down(77777).down(0).replace(new Node("y", true)).root();
+		assertEquals("[REPLACE [77777, 0] -> [77777, 0] y]", diff(w, we));
+	}
+	
+	@Test
+	public void testZipperRef() throws InterruptedException {
+		final ZipperRef<Node> ref = new ZipperRef<Node>(root.down());
+		Loc<Node> v0 = ref.get();
+		assertTrue(v0.isTop());
+		Loc<Node> v1 = ref.swap(new Function<Loc<Node>, Loc<Node>>() {
+			public Loc<Node> apply(Loc<Node> l) {
+				return l.down(2).add(new Node("d1", true));
+			}
+		});
+		assertSame(v1, ref.get());
+		assertFalse(ref.compareAndSet(v0, v0.down(0).remove()));
+		assertTrue(ref.compareAndSet(v1, v1.down(0).replace(new Node("x", true))));
+		assertEquals("root[x, a2[c1, c2], a3[d1]]", render(ref.get()));
+		
+		// Disjoint concurrent edits are merged
+		Node[] wide = new Node[8];
+		for (int i = 0; i < wide.length; i++) {
+			wide[i] = new Node("w" + i, false);
+		}
+		final ZipperRef<Node> shared = new ZipperRef<Node>(Zipper.zip(new Node("wide", wide)));
+		final int edits = 200;
+		Thread[] threads = new Thread[wide.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int index = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < edits; i++) {
+						shared.swapMerged(new Function<Loc<Node>, Loc<Node>>() {
+							public Loc<Node> apply(Loc<Node> l) {
+								return l.down(index).add(new Node("e", true));
+							}
+						});
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Loc<Node> l = shared.get();
+		for (int t = 0; t < threads.length; t++) {
+			assertEquals(edits, l.down(t).node().getChildren().size());
+		}
+		
+		// Conflicting edits are repeated
+		Loc<Node> base = shared.get();
+		shared.swap(new Function<Loc<Node>, Loc<Node>>() {
+			public Loc<Node> apply(Loc<Node> l) {
+				return l.down(0).insertLeft(new Node("first", true));
+			}
+		});
+		assertFalse(shared.compareAndSet(base, base.down(1).remove()));
+		assertEquals("first", nodeName(shared.get().down(0)));
+
+		// Stale base, disjoint edits are merged without repeating the edit
+		final List<Loc<Node>> bases = new ArrayList<Loc<Node>>();
+		final ZipperRef<Node> merged = new ZipperRef<Node>(root);
+		Loc<Node> m = merged.swapMerged(new Function<Loc<Node>, Loc<Node>>() {
+			public Loc<Node> apply(Loc<Node> l) {
+				if (bases.isEmpty()) {
+					merged.swap(new Function<Loc<Node>, Loc<Node>>() {
+						public Loc<Node> apply(Loc<Node> l) {
+							return l.down(1).down(0).replace(new Node("y", true));
+						}
+					});
+				}
+				bases.add(l);
+				return l.down(2).add(new Node("d1", true));
+			}
+		});
+		assertEquals(1, bases.size());
+		assertSame(m, merged.get());
+		assertEquals("root[a1[b1, b2], a2[y, c2], a3[d1]]", render(m));
+		
+		// Stale base, conflicting edits are repeated on the latest version
+		bases.clear();
+		final ZipperRef<Node> conflict = new ZipperRef<Node>(root);
+		Loc<Node> c = conflict.swapMerged(new Function<Loc<Node>, Loc<Node>>() {
+			public Loc<Node> apply(Loc<Node> l) {
+				if (bases.isEmpty()) {
+					conflict.swap(new Function<Loc<Node>, Loc<Node>>() {
+						public Loc<Node> apply(Loc<Node> l) {
+							return l.down(0).insertLeft(new Node("first", true));
+						}
+					});
+				}
+				bases.add(l);
+				return l.down().rightMost().add(new Node("d1", true));
+			}
+		});
+		assertEquals(2, bases.size());
+		assertEquals("root[a1[b1, b2], a2[c1, c2], a3]", render(bases.get(0)));
+		assertEquals("root[first, a1[b1, b2], a2[c1, c2], a3]", render(bases.get(1)));
+		assertEquals("root[first, a1[b1, b2], a2[c1, c2], a3[d1]]", render(c));
+	}
+	
+	@Test
+	public void testConcurrentInit() throws Exception {
+		final AtomicInteger reads = new AtomicInteger();
+		final List<Node> children = Arrays.asList(new Node("c1", true), new Node("c2", true));
+		ZipOptions options = ZipOptions.DEFAULT.withHasher(new ToLongFunction<IZipNode>() {
+			public long applyAsLong(IZipNode n) {
+				return 1;
+			}
+		});
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int round = 0; round < 100; round++) {
+				final Loc<Node> l = Zipper.zip(new Node("slow") {
+					@Override
+					public Collection<Node> getChildren() {
+						reads.incrementAndGet();
+						Thread.yield();
+						return children;
+					}
+				}, options);
+				final CountDownLatch start = new CountDownLatch(1);
+				List<Future<IZipNode>> results = new ArrayList<Future<IZipNode>>();
+				for (int t = 0; t < 4; t++) {
+					results.add(executor.submit(new Callable<IZipNode>() {
+						public IZipNode call() throws Exception {
+							start.await();
+							return ((List<? extends IZipNode>)l.node().getChildren()).get(1);
+						}
+					}));
+				}
+				start.countDown();
+				IZipNode first = results.get(0).get();
+				for (Future<IZipNode> f : results) {
+					assertSame(first, f.get());
+				}
+				assertEquals(round + 1, reads.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		// Failed reads are repeated
+		final AtomicInteger calls = new AtomicInteger();
+		Loc<Node> l = Zipper.zip(new Node("failing") {
+			@Override
+			public Collection<Node> getChildren() {
+				if (calls.incrementAndGet() == 1) {
+					throw new IllegalStateException();
+				}
+				return children;
+			}
+		});
+		try {
+			l.hasChildren();
+			fail("Failed read");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals("c1", nodeName(l.down()));
+		assertEquals(2, calls.get());
+	}
+	
+	@Test
+	public void testChildCache() {
+		assertNotSame(root.down(1), root.down(1));
+		
+		Loc<Node> l = Zipper.zip(Zipper.unzip(root), ZipOptions.DEFAULT.withChildCache(2));
+		assertSame(l.down(1), l.down(1));
+		assertSame(l.down(1).down(0), l.down(1).down(0));
+		assertNotSame(l.down(2), l.down(2));
+		assertEquals("c2", nodeName(l.down(1).down(1)));
+		
+		// Edited locations cache their own children
+		Loc<Node> e = l.down(1).down(0).replace(new Node("x", true)).up();
+		assertEquals("x", nodeName(e.down(0)));
+		assertSame(e.down(0), e.down(0));
+		assertEquals("c1", nodeName(l.down(1).down(0)));
+	}
+	
+	@Test
+	public void testBulkTransforms() {
+		Function<Node, Node> upper = new Function<Node, Node>() {
+			public Node apply(Node n) {
+				return n.getName().startsWith("c")? new Node(n.getName().toUpperCase()) : n;
+			}
+		};
+		Predicate<Node> noB = new Predicate<Node>() {
+			public boolean test(Node n) {
+				return !n.getName().startsWith("b");
+			}
+		};
+		Predicate<Node> isA = new Predicate<Node>() {
+			public boolean test(Node n) {
+				return n.getName().startsWith("a");
+			}
+		};
+		Function<Node, Node> leaf = new Function<Node, Node>() {
+			public Node apply(Node n) {
+				return new Node(n.getName() + "x", true);
+			}
+		};
+		
+		// Unchanged subtrees are shared
+		Loc<Node> m = root.mapSubtree(upper);
+		assertEquals("root[a1[b1, b2], a2[C1, C2], a3]", render(m));
+		assertSame(root.down(0)._source(), m.down(0)._source());
+		assertFalse(m.down(0).node().isModified());
+		Loc<Node> a1 = root.down(0);
+		assertSame(a1, a1.mapSubtree(upper));
+		assertEquals("root[a1[b1, b2], a2[c1, c2], a3]", render(root));
+		
+		Loc<Node> f = root.down(0).filterChildren(noB);
+		assertEquals("a1", render(f));
+		assertEquals("root[a1, a2[c1, c2], a3]", render(f.root()));
+		assertEquals("root[a2[c1], a3]", render(root.filterChildren(new Predicate<Node>() {
+			public boolean test(Node n) {
+				return !n.getName().equals("a1") && !n.getName().equals("c2");
+			}
+		})));
+		
+		Loc<Node> e = root.editAll(isA, leaf);
+		assertEquals("root[a1x, a2x, a3x]", render(e));
+		assertEquals("rootx", render(root.editAll(Predicate.<Node>isEqual(root._source()), leaf)));
+		try {
+			root.editAll(isA, new Function<Node, Node>() {
+				public Node apply(Node n) {
+					return null;
+				}
+			});
+			fail("Null replacement");
+		} catch (IllegalArgumentException x) {
+			// Expected
+		}
+		
+		// Parallel transforms
+		Node wide = wideTree(100, 100);
+		Loc<Node> w = Zipper.zip(wide);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Loc<Node> pw = w.filterChildren(new Predicate<Node>() {
+				public boolean test(Node n) {
+					return !n.getName().endsWith(".7");
+				}
+			}, pool);
+			assertEquals(100 * 99 + 101, pw.stream().count());
+			Predicate<Node> five = new Predicate<Node>() {
+				public boolean test(Node n) {
+					return n.getName().endsWith("5");
+				}
+			};
+			assertEquals(render(w.editAll(five, leaf)), render(w.editAll(five, leaf, pool)));
+			assertEquals("4.5x", nodeName(w.editAll(five, leaf, pool).down(4).down(5)));
+			assertEquals(render(w.mapSubtree(upper)), render(w.mapSubtree(upper, pool)));
+			assertSame(w, w.mapSubtree(Function.<Node>identity(), pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSelector() {
+		Map<String, Predicate<Node>> p = new HashMap<String, Predicate<Node>>();
+		p.put("a", new Predicate<Node>() {
+			public boolean test(Node n) {
+				return n.getName().startsWith("a");
+			}
+		});
+		p.put("two", new Predicate<Node>() {
+			public boolean test(Node n) {
+				return n.getName().endsWith("2");
+			}
+		});
+		final AtomicInteger tested = new AtomicInteger();
+		p.put("any", new Predicate<Node>() {
+			public boolean test(Node n) {
+				tested.incrementAndGet();
+				return true;
+			}
+		});
+	
+		assertEquals("[a1, a2, a3]", names(root.select(Selector.<Node>compile("/*"))));
+		assertEquals("[b1, b2, c1, c2]", names(root.select(Selector.<Node>compile("/*/*"))));
+		assertEquals("[a1, b1, b2, a2, c1, c2, a3]", names(root.select(Selector.<Node>compile("//*"))));
+		assertEquals("[b2, a2, c2]", names(root.select(Selector.compile("//*[two]", p))));
+		assertEquals("[b2, a2, c2]", names(root.select(Selector.compile("//two", p))));
+		assertEquals("[a2]", names(root.select(Selector.compile("/a[two]", p))));
+		assertEquals("[b2, c2, a3]", names(root.select(Selector.<Node>compile("//*[-1]"))));
+		assertEquals("[c1]", names(root.select(Selector.compile("/a[1]/*[0]", p))));
+		assertEquals("[b2, c2]", names(root.select(Selector.compile("//a//two", p))));
+		
+		// Nested descendant matches are returned once
+		assertEquals("[b1, b2, c1, c2]", names(root.select(Selector.<Node>compile("//*//*"))));
+		
+		// Subtrees without pending steps are pruned
+		assertEquals("[b1, b2]", names(root.select(Selector.compile("/*[0]/any", p))));
+		assertEquals(2, tested.get());
+		
+		// Compiled selectors are reusable and lazy
+		Selector<Node> s = Selector.compile("//*[two]", p);
+		assertEquals("//*[two]", s.toString());
+		assertEquals("[b2]", names(root.down(0).select(s)));
+		assertEquals("0.2", nodeName(Zipper.zip(wideTree(10, 10)).select(s).findFirst().get()));
+		
+		try {
+			Selector.compile("/*[0][1]", p);
+			fail("Duplicate index");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Duplicate index"));
+		}
+		for (String invalid : new String[] { "", "a", "/", "//", "/*[", "/*[x]", "/*[0][1]", "/unknown", "/*[0]x" }) {
+			try {
+				Selector.compile(invalid, p);
+				fail("Invalid selector " + invalid);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+	
+	/**
+	 * @return names of the selected locations
+	 */
+	private String names(final Stream<Loc<Node>> locs) {
+		return locs.map(new Function<Loc<Node>, String>() {
+			public String apply(Loc<Node> l) {
+				return l._source().getName();
+			}
+		}).collect(Collectors.toList()).toString();
+	}
+	
+	/**
+	 * @return tree with <tt>width</tt> children of <tt>width2</tt> empty children each
+	 */
+	private Node wideTree(final int width, final int width2) {
+		Node[] wide = new Node[width];
+		for (int i = 0; i < wide.length; i++) {
+			Node[] ch = new Node[width2];
+			for (int j = 0; j < ch.length; j++) {
+				ch[j] = new Node(i + "." + j, false);
+			}
+			wide[i] = new Node(Integer.toString(i), ch);
+		}
+		return new Node("wide", wide);
+	}
+	
+	/**
+	 * @return string representation of the subtree of <tt>loc</tt>
+	 */
+	private String render(final Loc<Node> loc) {
+		return Zipper.fold(loc, new Function<Node, String>() {
+			public String apply(Node n) {
+				return n.toString();
+			}
+		}, new BiFunction<Node, List<String>, String>() {
+			public String apply(Node n, List<String> ch) {
+				return n + ch.toString();
+			}
+		});
+	}
+	
+	/**
+	 * @return number of distinct ZipNodes below <tt>node</tt> not in <tt>seen</tt>
+	 */
+	private int zipNodes(final IZipNode node, final Set<IZipNode> seen) {
+		int count = 0;
+		if (node instanceof ZipNode<?> && seen.add(node)) {
+			count++;
+			if (node.getChildren() != null) {
+				for (IZipNode n : node.getChildren()) {
+					count += zipNodes(n, seen);
+				}
+			}
+		}
+		return count;
+	}
+	
+	private String diff(final Loc<Node> a, final Loc<Node> b) {
+		return Zipper.diff(a, b).collect(Collectors.toList()).toString();
+	}
+	
+	/**
+	 * @return number of clear() calls on all children lists below <tt>node</tt>
+	 */
+	private int clears(final Node node) {
+		int clears = 0;
+		if (node.getChildren() != null) {
+			clears += ((NodeList)node.getChildren()).clears;
+			for (Node n : node.getChildren()) {
+				clears += clears(n);
+			}
+		}
+		return clears;
+	}
+	
 	/**
 	 * @param loc
 	 * @return name for the param location
 	 */
+	private String name(final Loc<MappedNode> loc) {
+		return new String(loc._source().payload(), StandardCharsets.UTF_8);
+	}
+	
 	private String nodeName(final Loc<Node> loc) {
 		return loc._source().getName();
 	}
@@ -282,7 +1511,7 @@ public class ZipperTest extends TestCase {
 			super();
 			assert(name != null);
 			this.name = name;
-			this.children = (children == null)? null : new ArrayList<Node>(Arrays.asList(children));
+			this.children = (children == null)? null : new NodeList(Arrays.asList(children));
 		}
 		
 		public String getName() {
@@ -300,4 +1529,76 @@ public class ZipperTest extends TestCase {
 		
 	}
 	
+	/**
+	 * Indexed node with generated children
+	 */
+	class IndexedNode implements IIndexedZipNode {
+		
+		private final String name;
+		private final int count;
+		private final int childCount;
+		private List<IndexedNode> children;
+		private int fetched = 0;
+		
+		public IndexedNode(final String name, final int count) {
+			this(name, count, -1);
+		}
+		
+		/**
+		 * @param childCount number of children of the children, -1 for leafs
+		 */
+		public IndexedNode(final String name, final int count, final int childCount) {
+			super();
+			this.name = name;
+			this.count = count;
+			this.childCount = childCount;
+		}
+		
+		public int childCount() {
+			return (children == null)? count : children.size();
+		}
+		
+		public IZipNode childAt(final int index) {
+			fetched++;
+			return (children == null)? new IndexedNode(name + "." + index, childCount) : children.get(index);
+		}
+		
+		public List<IndexedNode> getChildren() {
+			if (children == null && count >= 0) {
+				List<IndexedNode> ch = new ArrayList<IndexedNode>();
+				for (int i = 0; i < count; i++) {
+					ch.add((IndexedNode)childAt(i));
+				}
+				children = ch;
+			}
+			return children;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+		
+	}
+	
+	/**
+	 * Children list counting <tt>clear()</tt> calls
+	 */
+	@SuppressWarnings("serial")
+	class NodeList extends ArrayList<Node> {
+		
+		private int clears = 0;
+		
+		public NodeList(final Collection<Node> nodes) {
+			super(nodes);
+		}
+		
+		@Override
+		public void clear() {
+			clears++;
+			super.clear();
+		}
+		
+	}
+	
 }